@@ -1,6 +1,7 @@
 plugins {
     id("java-library")
     id("org.allaymc.gradle.plugin") version "0.2.1"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "me.daoge.essentials"
@@ -27,3 +28,19 @@ dependencies {
     compileOnly(group = "org.projectlombok", name = "lombok", version = "1.18.34")
     annotationProcessor(group = "org.projectlombok", name = "lombok", version = "1.18.34")
 }
+
+// Benchmarks live in src/jmh/java, run them with ./gradlew jmh
+configurations {
+    // The Allay API is provided by the server, benchmarks run without one and need it on their own classpath
+    named("jmhImplementation") {
+        extendsFrom(compileOnly.get())
+    }
+}
+
+jmh {
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    // Select benchmarks with -PjmhIncludes=<regex>
+    providers.gradleProperty("jmhIncludes").orNull?.let { includes.add(it) }
+}
@@ -0,0 +1,50 @@
+package me.daoge.essentials.benchmark;
+
+import me.daoge.essentials.LocationRecord;
+import me.daoge.essentials.storage.LocationCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization cost of a location store snapshot, i.e. what a compaction
+ * writes and what opening a store reads.
+ *
+ * @author daoge
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CodecBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int records;
+
+    @Param({"false", "true"})
+    public boolean floatAngles;
+
+    private Map<String, LocationRecord> snapshot;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        snapshot = new LinkedHashMap<>();
+        Fixtures.records("home", records, 1).forEach(record -> snapshot.put(record.name(), record));
+        encoded = LocationCodec.encodeSnapshot(snapshot, floatAngles);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return LocationCodec.encodeSnapshot(snapshot, floatAngles);
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) throws IOException {
+        LocationCodec.decodeSnapshot(new ByteArrayInputStream(encoded), (key, record) -> blackhole.consume(record));
+    }
+}
@@ -0,0 +1,80 @@
+package me.daoge.essentials.benchmark;
+
+import me.daoge.essentials.LocationRecord;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Stand-in data for benchmarks. Records carry plain world names and dimension
+ * ids, the same values {@link LocationRecord#from} extracts from a real world,
+ * so the managers can be exercised without a running server.
+ *
+ * @author daoge
+ */
+final class Fixtures {
+
+    private static final String[] WORLDS = {"world", "world_nether", "world_the_end", "creative", "minigames"};
+
+    private Fixtures() {
+    }
+
+    /**
+     * @param prefix name prefix
+     * @param count  number of records
+     * @param seed   random seed, so that runs are comparable
+     * @return records with distinct, shuffled names
+     */
+    static List<LocationRecord> records(String prefix, int count, long seed) {
+        Random random = new Random(seed);
+        List<LocationRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(new LocationRecord(
+                    // Mixed case, as typed by players
+                    (random.nextBoolean() ? prefix.toUpperCase(Locale.ROOT) : prefix) + "_" + Integer.toString(random.nextInt(Integer.MAX_VALUE), 36) + "_" + i,
+                    WORLDS[random.nextInt(WORLDS.length)],
+                    random.nextInt(3),
+                    random.nextInt(60000) - 30000 + random.nextDouble(),
+                    random.nextInt(320) - 64,
+                    random.nextInt(60000) - 30000 + random.nextDouble(),
+                    random.nextFloat() * 180 - 90,
+                    random.nextFloat() * 360 - 180
+            ));
+        }
+        return records;
+    }
+
+    /**
+     * @return deterministic player ids
+     */
+    static List<UUID> players(int count) {
+        List<UUID> players = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            players.add(new UUID(0x45535345L, i));
+        }
+        return players;
+    }
+
+    static Path tempFolder() throws IOException {
+        return Files.createTempDirectory("essentials-jmh");
+    }
+
+    static void delete(Path folder) throws IOException {
+        if (folder == null || !Files.exists(folder)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package me.daoge.essentials.benchmark;
+
+import me.daoge.essentials.HomeIndex;
+import me.daoge.essentials.HomeManager;
+import me.daoge.essentials.LocationRecord;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The index of all players' homes in both memory layouts: building it at
+ * startup and region queries. Setup also prints the heap retained per home,
+ * which is what the packed layout is for; it indexes fresh copies of the homes,
+ * as loading them from the stores would, so that the object layout is charged
+ * for the records it keeps.
+ * <p>
+ * Players own {@value #HOMES_PER_PLAYER} homes each, named from a small pool
+ * as on a real server.
+ *
+ * @author daoge
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HomeIndexBenchmark {
+
+    private static final int HOMES_PER_PLAYER = 5;
+    private static final String[] HOME_NAMES = {"home", "base", "farm", "mine", "Shop", "nether", "portal", "storage"};
+
+    @Param({"objects", "packed"})
+    public String layout;
+
+    @Param({"100000", "1000000"})
+    public int homes;
+
+    private List<HomeManager.HomeKey> keys;
+    private List<LocationRecord> records;
+    private HomeIndex index;
+    private LocationRecord center;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        List<UUID> players = Fixtures.players(homes / HOMES_PER_PLAYER);
+        List<LocationRecord> locations = Fixtures.records("home", homes, 6);
+        keys = new ArrayList<>(homes);
+        records = new ArrayList<>(homes);
+        for (int i = 0; i < homes; i++) {
+            LocationRecord location = locations.get(i);
+            String name = HOME_NAMES[(i % HOMES_PER_PLAYER + i / HOMES_PER_PLAYER) % HOME_NAMES.length];
+            keys.add(new HomeManager.HomeKey(players.get(i / HOMES_PER_PLAYER), name.toLowerCase(Locale.ROOT)));
+            records.add(new LocationRecord(name, location.worldName(), location.dimensionId(),
+                    location.x(), location.y(), location.z(), location.pitch(), location.yaw()));
+        }
+        center = records.get(homes / 2);
+
+        long before = usedHeap();
+        index = HomeIndex.create("packed".equals(layout));
+        for (int i = 0; i < homes; i++) {
+            HomeManager.HomeKey key = keys.get(i);
+            LocationRecord home = records.get(i);
+            index.put(new HomeManager.HomeKey(key.owner(), new String(key.name())),
+                    new LocationRecord(new String(home.name()), new String(home.worldName()), home.dimensionId(),
+                            home.x(), home.y(), home.z(), home.pitch(), home.yaw()));
+        }
+        long after = usedHeap();
+        System.out.printf("%n%s index retains %d bytes per home%n", layout, (after - before) / homes);
+    }
+
+    @Benchmark
+    public HomeIndex build() {
+        HomeIndex index = HomeIndex.create("packed".equals(layout));
+        for (int i = 0; i < homes; i++) {
+            index.put(keys.get(i), records.get(i));
+        }
+        return index;
+    }
+
+    @Benchmark
+    public int withinRadius256() {
+        return query(256);
+    }
+
+    @Benchmark
+    public int withinRadius2048() {
+        return query(2048);
+    }
+
+    private int query(double radius) {
+        int[] count = new int[1];
+        index.withinRadius(center, radius, match -> count[0]++);
+        return count[0];
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,93 @@
+package me.daoge.essentials.benchmark;
+
+import me.daoge.essentials.HomeManager;
+import me.daoge.essentials.LocationRecord;
+import me.daoge.essentials.storage.LogStorageBackend;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and loading homes of many players through {@link HomeManager} and the
+ * log storage backend. Each invocation touches every home, so these run as
+ * single shots.
+ *
+ * @author daoge
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class HomeStorageBenchmark {
+
+    private static final int HOMES_PER_PLAYER = 20;
+    // Never flush in the background, the benchmarks flush explicitly on close
+    private static final long SAVE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    @Param({"10000", "100000", "1000000"})
+    public int homes;
+
+    private List<UUID> players;
+    private List<LocationRecord> records;
+    private Path savedFolder;
+    private Path scratchFolder;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        players = Fixtures.players(homes / HOMES_PER_PLAYER);
+        records = Fixtures.records("home", homes, 2);
+        savedFolder = Fixtures.tempFolder();
+        save(savedFolder);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(savedFolder);
+    }
+
+    @Setup(Level.Invocation)
+    public void createScratchFolder() throws IOException {
+        scratchFolder = Fixtures.tempFolder();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteScratchFolder() throws IOException {
+        Fixtures.delete(scratchFolder);
+    }
+
+    @Benchmark
+    public void save() {
+        save(scratchFolder);
+    }
+
+    @Benchmark
+    public void load(Blackhole blackhole) {
+        try (HomeManager manager = newManager(savedFolder)) {
+            manager.exportHomes((playerId, playerHomes) -> blackhole.consume(playerHomes));
+        }
+    }
+
+    private void save(Path folder) {
+        try (HomeManager manager = newManager(folder)) {
+            for (int i = 0; i < players.size(); i++) {
+                int from = i * HOMES_PER_PLAYER;
+                manager.importHomes(players.get(i), records.subList(from, from + HOMES_PER_PLAYER));
+            }
+        }
+    }
+
+    private static HomeManager newManager(Path folder) {
+        HomeManager manager = new HomeManager(folder, new LogStorageBackend(folder, 1000, false), SAVE_INTERVAL_MILLIS, 0, true);
+        // The index of all homes is built in the background, wait for it so that it does not run alongside the measured work
+        while (!manager.isIndexReady()) {
+            Thread.onSpinWait();
+        }
+        return manager;
+    }
+}
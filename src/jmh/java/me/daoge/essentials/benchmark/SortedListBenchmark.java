@@ -0,0 +1,105 @@
+package me.daoge.essentials.benchmark;
+
+import me.daoge.essentials.HomeManager;
+import me.daoge.essentials.LocationRecord;
+import me.daoge.essentials.WarpManager;
+import me.daoge.essentials.storage.LogStorageBackend;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot read paths of the home and warp commands: sorted lists shown in forms,
+ * name lookups (which normalize the name) and warp prefix search.
+ *
+ * @author daoge
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SortedListBenchmark {
+
+    private static final long SAVE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    @Param({"10", "100", "1000"})
+    public int homes;
+
+    @Param({"100", "3000"})
+    public int warps;
+
+    private Path folder;
+    private HomeManager homeManager;
+    private WarpManager warpManager;
+    private UUID player;
+    private String homeName;
+    private String warpName;
+    private String warpPrefix;
+
+    @Setup
+    public void setup() throws IOException {
+        folder = Fixtures.tempFolder();
+        LogStorageBackend backend = new LogStorageBackend(folder, 1000, false);
+        homeManager = new HomeManager(folder, backend, SAVE_INTERVAL_MILLIS, 0, true);
+        warpManager = new WarpManager(folder, backend, SAVE_INTERVAL_MILLIS, false);
+        // Warps load and the home index is built in the background
+        while (!warpManager.isLoaded() || !homeManager.isIndexReady()) {
+            Thread.onSpinWait();
+        }
+
+        player = Fixtures.players(1).getFirst();
+        List<LocationRecord> homeRecords = Fixtures.records("home", homes, 3);
+        homeManager.importHomes(player, homeRecords);
+        // The player's homes are loaded in the background, as on join
+        while (!homeManager.isLoaded(player)) {
+            Thread.onSpinWait();
+        }
+        homeName = homeRecords.get(homes / 2).name();
+
+        List<LocationRecord> warpRecords = Fixtures.records("warp", warps, 4);
+        warpManager.importWarps(warpRecords);
+        warpName = warpRecords.get(warps / 2).name();
+        warpPrefix = warpName.substring(0, 6);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        homeManager.close();
+        warpManager.close();
+        Fixtures.delete(folder);
+    }
+
+    @Benchmark
+    public List<LocationRecord> sortedHomes() {
+        return homeManager.getSortedHomes(player);
+    }
+
+    @Benchmark
+    public Collection<LocationRecord> sortedWarps() {
+        return warpManager.getSortedWarps();
+    }
+
+    @Benchmark
+    public List<LocationRecord> warpFormPage() {
+        return warpManager.getWarpsAfter("", warpName, 21);
+    }
+
+    @Benchmark
+    public List<LocationRecord> warpPrefixSearch() {
+        return warpManager.getWarpsAfter(warpPrefix, null, 21);
+    }
+
+    @Benchmark
+    public Object homeLookup() {
+        return homeManager.getHome(player, homeName);
+    }
+
+    @Benchmark
+    public Object warpLookup() {
+        return warpManager.getWarp(warpName);
+    }
+}
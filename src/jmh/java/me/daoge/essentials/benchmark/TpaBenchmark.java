@@ -0,0 +1,77 @@
+package me.daoge.essentials.benchmark;
+
+import me.daoge.essentials.TimingWheel;
+import me.daoge.essentials.TpaManager;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request bookkeeping of {@link TpaManager} with many pending requests, e.g.
+ * cleaning up after a disconnecting player.
+ *
+ * @author daoge
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TpaBenchmark {
+
+    private static final int TIMEOUT_SECONDS = 60;
+    private static final int MAX_PENDING = 5;
+
+    @Param({"1000", "10000", "100000"})
+    public int pending;
+
+    private TpaManager manager;
+    private TimingWheel<Integer> wheel;
+    private List<UUID> players;
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        // Teleports are never carried out here
+        manager = new TpaManager(null, TIMEOUT_SECONDS, MAX_PENDING);
+        players = Fixtures.players(pending * 2);
+        for (int i = 0; i < pending; i++) {
+            manager.send(players.get(i), players.get(pending + i % (pending / MAX_PENDING)), TpaManager.RequestType.TPA);
+        }
+        wheel = new TimingWheel<>(64);
+        for (int i = 0; i < pending; i++) {
+            wheel.schedule(i, i % (TIMEOUT_SECONDS * 2) + 1);
+        }
+    }
+
+    /**
+     * A requester disconnects and a new request arrives, keeping the number of
+     * pending requests constant.
+     */
+    @Benchmark
+    public Object removeRequester() {
+        UUID requester = players.get(cursor);
+        UUID target = players.get(pending + cursor % (pending / MAX_PENDING));
+        cursor = (cursor + 1) % pending;
+        manager.removePlayer(requester);
+        return manager.send(requester, target, TpaManager.RequestType.TPA);
+    }
+
+    @Benchmark
+    public List<TpaManager.Request> pendingOfTarget() {
+        cursor = (cursor + 1) % pending;
+        return manager.getPending(players.get(pending + cursor % (pending / MAX_PENDING)));
+    }
+
+    /**
+     * One expiry tick; expired items are rescheduled so the wheel stays populated.
+     */
+    @Benchmark
+    public void expiryTick(Blackhole blackhole) {
+        wheel.advance(item -> {
+            blackhole.consume(item);
+            wheel.schedule(item, TIMEOUT_SECONDS);
+        });
+    }
+}
@@ -0,0 +1,311 @@
+package me.daoge.essentials;
+
+import lombok.extern.slf4j.Slf4j;
+import me.daoge.essentials.metrics.Metrics;
+import me.daoge.essentials.storage.LocationStore;
+import me.daoge.essentials.storage.StorageBackend;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a bounded history of the places each player came from (teleport origins
+ * and death locations) for /back.
+ * <p>
+ * Each player's history is a ring buffer of the last {@code historySize}
+ * entries, persisted in the {@code back/<uuid>} {@link LocationStore} so it
+ * survives relogging and restarts. Histories of online players are always in
+ * memory; histories of offline players are kept in an LRU cache of
+ * {@code cacheSize} entries and reloaded from the store when needed.
+ * Histories are loaded and evicted histories flushed on {@link EssentialsIO},
+ * in the lane of their store, so a reload waits for the eviction flush. Nothing
+ * waits for a load: entries recorded meanwhile are added once it finishes, and
+ * {@link #get} may only be called after {@link #isLoaded(UUID)}.
+ *
+ * @author daoge
+ */
+@Slf4j
+public class BackManager implements AutoCloseable {
+
+    public static final String REASON_DEATH = "death";
+    public static final String REASON_TELEPORT = "teleport";
+
+    private static final String BACK_NAMESPACE = "back";
+
+    private final StorageBackend backend;
+    private final int historySize;
+    private final Set<UUID> connected = ConcurrentHashMap.newKeySet();
+    private final Map<UUID, History> online = new ConcurrentHashMap<>();
+    // Access-ordered, guarded by itself; also guards moving histories between the two maps
+    private final LinkedHashMap<UUID, History> offline;
+    private final Map<UUID, CompletableFuture<History>> loading = new ConcurrentHashMap<>();
+    private final Set<UUID> dirtyPlayers = ConcurrentHashMap.newKeySet();
+    private final WriteBehindSaver saver;
+
+    /**
+     * @param backend            storage backend for the per-player histories
+     * @param historySize        number of entries kept per player
+     * @param cacheSize          number of offline players' histories kept in memory, at least one
+     * @param saveIntervalMillis delay between background flushes in milliseconds
+     */
+    public BackManager(StorageBackend backend, int historySize, int cacheSize, long saveIntervalMillis) {
+        this.backend = backend;
+        this.historySize = Math.max(1, historySize);
+        // At least one, so that a history just loaded for an offline player is not evicted before it is used
+        int capacity = Math.max(1, cacheSize);
+        this.offline = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, History> eldest) {
+                if (size() <= capacity) {
+                    return false;
+                }
+                // Persist staged entries before dropping the history from memory, without blocking the caller
+                LocationStore store = eldest.getValue().store;
+                EssentialsIO.run(namespace(eldest.getKey()), store::close);
+                return true;
+            }
+        };
+        this.saver = new WriteBehindSaver(BACK_NAMESPACE, saveIntervalMillis, this::flush);
+    }
+
+    /**
+     * Load a player's history in the background, typically when they join.
+     *
+     * @param playerId player uuid
+     */
+    public void loadPlayer(UUID playerId) {
+        connected.add(playerId);
+        if (resident(playerId) == null) {
+            load(playerId);
+        }
+    }
+
+    /**
+     * Move a player's history into the offline cache, typically when they disconnect.
+     *
+     * @param playerId player uuid
+     */
+    public void unloadPlayer(UUID playerId) {
+        connected.remove(playerId);
+        synchronized (offline) {
+            History history = online.remove(playerId);
+            if (history != null) {
+                offline.put(playerId, history);
+            }
+        }
+    }
+
+    /**
+     * Record a location the player left.
+     *
+     * @param playerId player uuid
+     * @param location the location, whose name is used as the reason
+     */
+    public void record(UUID playerId, LocationRecord location) {
+        History history = resident(playerId);
+        if (history != null) {
+            history.add(location);
+            markDirty(playerId);
+        } else {
+            load(playerId).thenAccept(loaded -> {
+                loaded.add(location);
+                markDirty(playerId);
+            });
+        }
+    }
+
+    /**
+     * Check whether a player's history is in memory, and start loading it in
+     * the background if it is not.
+     *
+     * @param playerId player uuid
+     * @return whether {@link #get} can be used for the player
+     */
+    public boolean isLoaded(UUID playerId) {
+        if (resident(playerId) != null) {
+            return true;
+        }
+        load(playerId);
+        return false;
+    }
+
+    /**
+     * @param playerId player uuid
+     * @param index    1 for the most recent entry, 2 for the one before, ...
+     * @return the entry, if the history is that long
+     * @throws IllegalStateException if the history is not loaded, see {@link #isLoaded(UUID)}
+     */
+    public Optional<LocationRecord> get(UUID playerId, int index) {
+        History history = resident(playerId);
+        if (history == null) {
+            throw new IllegalStateException("Back history of " + playerId + " is not loaded");
+        }
+        return Optional.ofNullable(history.get(index));
+    }
+
+    /**
+     * @return number of entries kept per player
+     */
+    public int getHistorySize() {
+        return historySize;
+    }
+
+    /**
+     * Flush pending changes synchronously and stop the background writer.
+     */
+    @Override
+    public void close() {
+        saver.close();
+        online.values().forEach(history -> history.store.close());
+        synchronized (offline) {
+            offline.values().forEach(history -> history.store.close());
+        }
+    }
+
+    /**
+     * @return the history if it is in memory, moved into the map matching the player's connection state, otherwise null
+     */
+    private History resident(UUID playerId) {
+        History history = online.get(playerId);
+        if (history != null) {
+            return history;
+        }
+        synchronized (offline) {
+            history = online.get(playerId);
+            if (history != null) {
+                return history;
+            }
+            history = offline.get(playerId);
+            if (history != null) {
+                place(playerId, history);
+            }
+            return history;
+        }
+    }
+
+    /**
+     * Load a history in the background; callers asking for the same player share one load.
+     */
+    private CompletableFuture<History> load(UUID playerId) {
+        return loading.computeIfAbsent(playerId, this::open);
+    }
+
+    private CompletableFuture<History> open(UUID playerId) {
+        String namespace = namespace(playerId);
+        return EssentialsIO.supply(namespace, () -> {
+            try {
+                History history = new History(backend.open(namespace));
+                synchronized (offline) {
+                    place(playerId, history);
+                }
+                if (history.trimmed) {
+                    // Write the removals staged by the load
+                    markDirty(playerId);
+                }
+                return history;
+            } finally {
+                loading.remove(playerId);
+            }
+        });
+    }
+
+    /**
+     * Put a history into the map matching the player's connection state.
+     * Must hold the {@code offline} lock.
+     */
+    private void place(UUID playerId, History history) {
+        if (connected.contains(playerId)) {
+            offline.remove(playerId);
+            online.put(playerId, history);
+        } else {
+            offline.put(playerId, history);
+        }
+    }
+
+    private void markDirty(UUID playerId) {
+        dirtyPlayers.add(playerId);
+        saver.markDirty();
+    }
+
+    private static String namespace(UUID playerId) {
+        return BACK_NAMESPACE + "/" + playerId;
+    }
+
+    private void flush() {
+        for (Iterator<UUID> iterator = dirtyPlayers.iterator(); iterator.hasNext(); ) {
+            UUID playerId = iterator.next();
+            iterator.remove();
+            History history = online.get(playerId);
+            if (history == null) {
+                synchronized (offline) {
+                    history = offline.get(playerId);
+                }
+            }
+            // Histories evicted from the cache are flushed on eviction
+            if (history != null) {
+                history.store.flush();
+            }
+        }
+    }
+
+    /**
+     * Ring buffer of one player's entries. Entries are stored under increasing
+     * sequence numbers so that the order survives a restart.
+     */
+    private final class History {
+        private final LocationStore store;
+        private final LocationRecord[] entries = new LocationRecord[historySize];
+        private long nextSequence;
+        // Whether loading staged the removal of entries beyond the history size
+        private boolean trimmed;
+
+        private History(LocationStore store) {
+            this.store = store;
+            Map<String, LocationRecord> stored;
+            try {
+                stored = Metrics.time("load.back", store::load);
+            } catch (Exception e) {
+                log.error("Failed to load back history", e);
+                return;
+            }
+            TreeMap<Long, LocationRecord> ordered = new TreeMap<>();
+            stored.forEach((key, record) -> {
+                try {
+                    ordered.put(Long.parseLong(key), record);
+                } catch (NumberFormatException ignored) {
+                    // Skip unknown entries
+                }
+            });
+            if (ordered.isEmpty()) {
+                return;
+            }
+            nextSequence = ordered.lastKey() + 1;
+            ordered.forEach((sequence, record) -> {
+                if (sequence >= nextSequence - historySize) {
+                    entries[(int) (sequence % historySize)] = record;
+                } else {
+                    // Left over from a larger history size
+                    store.remove(Long.toString(sequence));
+                    trimmed = true;
+                }
+            });
+        }
+
+        private synchronized void add(LocationRecord record) {
+            long sequence = nextSequence++;
+            entries[(int) (sequence % historySize)] = record;
+            store.put(Long.toString(sequence), record);
+            if (sequence >= historySize) {
+                store.remove(Long.toString(sequence - historySize));
+            }
+        }
+
+        private synchronized LocationRecord get(int index) {
+            if (index < 1 || index > historySize || index > nextSequence) {
+                return null;
+            }
+            return entries[(int) ((nextSequence - index) % historySize)];
+        }
+    }
+}
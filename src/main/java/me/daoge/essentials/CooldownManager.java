@@ -0,0 +1,168 @@
+package me.daoge.essentials;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import me.daoge.essentials.metrics.Metrics;
+import org.allaymc.api.command.CommandResult;
+import org.allaymc.api.command.tree.CommandContext;
+import org.allaymc.api.entity.interfaces.EntityPlayer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Rate limits command use per player with token buckets.
+ * <p>
+ * Each player has one bucket per command holding up to {@code burst} uses; a
+ * use is regained every {@code refill} seconds. The limits come from the
+ * {@code cooldowns} section of config.yml: a command path such as
+ * {@code home.tp} falls back to {@code home} and then to {@code default}, and
+ * players in a group (permission {@code essentials.cooldown.group.<name>})
+ * use the group's limits where it defines them. Buckets are keyed by the
+ * player's runtime id and dropped when the player disconnects. Only players
+ * are limited; the console is not.
+ *
+ * @author daoge
+ */
+public class CooldownManager {
+
+    public static final String BYPASS_PERMISSION = "essentials.cooldown.bypass";
+    public static final String GROUP_PERMISSION_PREFIX = "essentials.cooldown.group.";
+
+    private static final String DEFAULT_RULE = "default";
+
+    // runtime id -> command -> bucket, guarded by itself
+    private final Long2ObjectOpenHashMap<Map<String, Bucket>> buckets = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * Wrap a command executor so that players exceeding the command's rate
+     * limit are told how long to wait instead of running it.
+     *
+     * @param command command path, e.g. {@code home.tp}
+     * @param handler command executor
+     * @return the limited executor
+     */
+    public static <S> BiFunction<CommandContext, S, CommandResult> limit(String command, BiFunction<CommandContext, S, CommandResult> handler) {
+        return (context, sender) -> tryAcquire(context, command) ? handler.apply(context, sender) : context.fail();
+    }
+
+    /**
+     * Wrap a command executor that does not need a typed sender.
+     *
+     * @see #limit(String, BiFunction)
+     */
+    public static Function<CommandContext, CommandResult> limit(String command, Function<CommandContext, CommandResult> handler) {
+        return context -> tryAcquire(context, command) ? handler.apply(context) : context.fail();
+    }
+
+    private static boolean tryAcquire(CommandContext context, String command) {
+        if (!(context.getSender() instanceof EntityPlayer player)) {
+            return true;
+        }
+        long waitMillis = EssentialsPlugin.getInstance().getCooldownManager().acquire(player, command);
+        if (waitMillis == 0) {
+            return true;
+        }
+        Metrics.increment("cooldown.rejected");
+        context.addError("You are doing that too often! Please wait %s.", formatWait(waitMillis));
+        return false;
+    }
+
+    /**
+     * Take one use of a command from the player's bucket.
+     *
+     * @param player  the player
+     * @param command command path, e.g. {@code home.tp}
+     * @return 0 if the player may use the command, otherwise milliseconds until they may
+     */
+    public long acquire(EntityPlayer player, String command) {
+        EssentialsSettings.Cooldowns settings = EssentialsPlugin.getInstance().getSettings().cooldowns();
+        if (!settings.enabled() || player.hasPermission(BYPASS_PERMISSION).asBoolean()) {
+            return 0;
+        }
+        EssentialsSettings.Rule rule = findRule(settings, player, command);
+        if (rule == null) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (buckets) {
+            Map<String, Bucket> playerBuckets = buckets.get(player.getRuntimeId());
+            if (playerBuckets == null) {
+                playerBuckets = new HashMap<>();
+                buckets.put(player.getRuntimeId(), playerBuckets);
+            }
+            return playerBuckets.computeIfAbsent(command, key -> new Bucket(rule.burst(), now)).acquire(rule, now);
+        }
+    }
+
+    /**
+     * Drop the player's buckets, typically when they disconnect.
+     *
+     * @param runtimeId runtime id of the player's entity
+     */
+    public void removePlayer(long runtimeId) {
+        synchronized (buckets) {
+            buckets.remove(runtimeId);
+        }
+    }
+
+    private static EssentialsSettings.Rule findRule(EssentialsSettings.Cooldowns settings, EntityPlayer player, String command) {
+        for (Map.Entry<String, Map<String, EssentialsSettings.Rule>> group : settings.groups().entrySet()) {
+            if (player.hasPermission(GROUP_PERMISSION_PREFIX + group.getKey()).asBoolean()) {
+                EssentialsSettings.Rule rule = findRule(group.getValue(), command);
+                if (rule != null) {
+                    return rule;
+                }
+            }
+        }
+        return findRule(settings.commands(), command);
+    }
+
+    private static EssentialsSettings.Rule findRule(Map<String, EssentialsSettings.Rule> rules, String command) {
+        String path = command;
+        while (true) {
+            EssentialsSettings.Rule rule = rules.get(path);
+            if (rule != null) {
+                return rule;
+            }
+            int separator = path.lastIndexOf('.');
+            if (separator < 0) {
+                return rules.get(DEFAULT_RULE);
+            }
+            path = path.substring(0, separator);
+        }
+    }
+
+    private static String formatWait(long millis) {
+        long seconds = (millis + 999) / 1000;
+        return seconds < 60 ? seconds + "s" : seconds / 60 + "m " + seconds % 60 + "s";
+    }
+
+    /**
+     * Token bucket of one player and command. The number of uses is kept in
+     * milli-uses so that partial refills are not lost between calls.
+     */
+    private static final class Bucket {
+        private long milliTokens;
+        private long lastRefill;
+
+        private Bucket(int tokens, long now) {
+            this.milliTokens = tokens * 1000L;
+            this.lastRefill = now;
+        }
+
+        private long acquire(EssentialsSettings.Rule rule, long now) {
+            long capacity = rule.burst() * 1000L;
+            // Milli-uses regained per millisecond is 1000 / refillMillis
+            long refilled = rule.refillMillis() == 0 ? capacity : (now - lastRefill) * 1000L / rule.refillMillis();
+            milliTokens = Math.min(capacity, milliTokens + refilled);
+            lastRefill = now;
+            if (milliTokens >= 1000) {
+                milliTokens -= 1000;
+                return 0;
+            }
+            return Math.max(1, (1000 - milliTokens) * rule.refillMillis() / 1000);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package me.daoge.essentials;
+
+import lombok.extern.slf4j.Slf4j;
+import org.allaymc.api.server.Server;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Runs the plugin's blocking work, mostly file and database I/O, off the server thread.
+ * <p>
+ * Every task runs on its own virtual thread, so a slow disk or database never
+ * holds up the server and blocked tasks cost no platform thread. Tasks that
+ * touch the same file are submitted to the same lane, which runs them one at
+ * a time in submission order. Periodic background work such as write-behind
+ * flushes is scheduled with {@link #repeat}. Completions run on the virtual
+ * thread; use {@link #onServerThread} before touching players or worlds.
+ *
+ * @author daoge
+ */
+@Slf4j
+public final class EssentialsIO {
+
+    private static final ExecutorService EXECUTOR = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("Essentials-io-", 0).factory());
+    // Only hands due tasks to the executor, never runs them itself
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Essentials-io-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Lane name -> last task submitted to it
+    private static final Map<String, CompletableFuture<?>> LANES = new ConcurrentHashMap<>();
+    private static final Set<CompletableFuture<?>> IN_FLIGHT = ConcurrentHashMap.newKeySet();
+
+    private EssentialsIO() {
+    }
+
+    /**
+     * Run a task on a virtual thread.
+     *
+     * @param task the task
+     * @return future completed when the task finished
+     */
+    public static CompletableFuture<Void> run(Runnable task) {
+        return track(CompletableFuture.runAsync(task, EXECUTOR));
+    }
+
+    /**
+     * Compute a value on a virtual thread.
+     *
+     * @param task the task
+     * @return future of the value
+     */
+    public static <T> CompletableFuture<T> supply(Supplier<T> task) {
+        return track(CompletableFuture.supplyAsync(task, EXECUTOR));
+    }
+
+    /**
+     * Run a task after all tasks submitted to the same lane before it.
+     *
+     * @param lane lane name, typically the file the task writes
+     * @param task the task
+     * @return future completed when the task finished
+     */
+    public static CompletableFuture<Void> run(String lane, Runnable task) {
+        return supply(lane, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Compute a value after all tasks submitted to the same lane before it.
+     * A failed task does not stop the ones after it.
+     *
+     * @param lane lane name, typically the file the task reads or writes
+     * @param task the task
+     * @return future of the value
+     */
+    public static <T> CompletableFuture<T> supply(String lane, Supplier<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<?> previous = LANES.put(lane, future);
+        CompletableFuture<?> ready = previous == null ? CompletableFuture.completedFuture(null) : previous.exceptionally(error -> null);
+        ready.thenRunAsync(() -> {
+            try {
+                future.complete(task.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }, EXECUTOR);
+        future.whenComplete((result, error) -> LANES.remove(lane, future));
+        return track(future);
+    }
+
+    /**
+     * Continue with a future's result on the server thread.
+     *
+     * @param future a future completed by an I/O task
+     * @return future completed with the same outcome, on the server thread
+     */
+    public static <T> CompletableFuture<T> onServerThread(CompletableFuture<T> future) {
+        CompletableFuture<T> hopped = new CompletableFuture<>();
+        future.whenComplete((result, error) -> runOnServerThread(() -> {
+            if (error != null) {
+                hopped.completeExceptionally(error);
+            } else {
+                hopped.complete(result);
+            }
+        }));
+        return hopped;
+    }
+
+    /**
+     * Run an action on the server thread during the next tick.
+     *
+     * @param action the action
+     */
+    public static void runOnServerThread(Runnable action) {
+        Server.getInstance().getScheduler().runLater(EssentialsPlugin.getInstance(), action);
+    }
+
+    /**
+     * Run a task repeatedly on a virtual thread, waiting the interval between
+     * the end of one run and the start of the next. Failures are logged and do
+     * not stop the task.
+     *
+     * @param name           name of the task, used for its thread and log messages
+     * @param intervalMillis delay between runs in milliseconds
+     * @param task           the task
+     * @return handle to stop the task
+     */
+    public static Repeating repeat(String name, long intervalMillis, Runnable task) {
+        Repeating repeating = new Repeating(name, Math.max(1, intervalMillis), task);
+        repeating.scheduleNext();
+        return repeating;
+    }
+
+    /**
+     * Wait for the submitted tasks to finish, typically when the plugin is disabled.
+     *
+     * @param timeoutMillis maximum time to wait
+     */
+    public static void awaitIdle(long timeoutMillis) {
+        try {
+            CompletableFuture.allOf(IN_FLIGHT.toArray(CompletableFuture[]::new))
+                    .exceptionally(error -> null)
+                    .get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("{} I/O tasks did not finish in time", IN_FLIGHT.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Failed tasks report their own errors
+        }
+    }
+
+    private static <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+        IN_FLIGHT.add(future);
+        future.whenComplete((result, error) -> IN_FLIGHT.remove(future));
+        return future;
+    }
+
+    /**
+     * A task run by {@link #repeat}.
+     */
+    public static final class Repeating implements AutoCloseable {
+        private final String name;
+        private final long intervalMillis;
+        private final Runnable task;
+        private volatile boolean closed;
+        private volatile CompletableFuture<Void> current = CompletableFuture.completedFuture(null);
+        private ScheduledFuture<?> next;
+
+        private Repeating(String name, long intervalMillis, Runnable task) {
+            this.name = name;
+            this.intervalMillis = intervalMillis;
+            this.task = task;
+        }
+
+        /**
+         * Stop scheduling runs and wait for a run in progress to finish.
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                closed = true;
+                next.cancel(false);
+            }
+            try {
+                current.get(10, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                log.warn("Task {} did not stop in time", name);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException ignored) {
+                // Runs catch their own failures
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            if (closed) {
+                return;
+            }
+            next = TIMER.schedule(() -> {
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    current = CompletableFuture.runAsync(this::runOnce, EXECUTOR);
+                }
+            }, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void runOnce() {
+            Thread.currentThread().setName("Essentials-" + name);
+            try {
+                task.run();
+            } catch (Throwable t) {
+                log.error("Task {} failed", name, t);
+            } finally {
+                scheduleNext();
+            }
+        }
+    }
+}
@@ -1,7 +1,13 @@
 package me.daoge.essentials;
 
 import lombok.Getter;
+import me.daoge.essentials.audit.AuditLog;
 import me.daoge.essentials.command.*;
+import me.daoge.essentials.metrics.Metrics;
+import me.daoge.essentials.metrics.PrometheusExporter;
+import me.daoge.essentials.storage.JdbcStorageBackend;
+import me.daoge.essentials.storage.LogStorageBackend;
+import me.daoge.essentials.storage.StorageBackend;
 import org.allaymc.api.command.CommandRegistry;
 import org.allaymc.api.eventbus.EventBus;
 import org.allaymc.api.plugin.Plugin;
@@ -12,6 +18,12 @@ import org.allaymc.api.utils.config.ConfigSection;
 
 import java.io.File;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.UnaryOperator;
 
 /**
  * Essentials plugin for Allay server
@@ -20,10 +32,18 @@ import java.io.InputStream;
  */
 public class EssentialsPlugin extends Plugin {
 
+    /**
+     * {@link EssentialsIO} lane of all reads and writes of config.yml.
+     */
+    static final String CONFIG_LANE = "config.yml";
+    private static final long IO_SHUTDOWN_TIMEOUT_MILLIS = 10_000;
+
     @Getter
     private static EssentialsPlugin instance;
 
     private EventListener eventListener;
+    private StorageBackend storageBackend;
+    private PrometheusExporter prometheusExporter;
     @Getter
     private WarpManager warpManager;
     @Getter
@@ -31,7 +51,28 @@ public class EssentialsPlugin extends Plugin {
     @Getter
     private HubManager hubManager;
     @Getter
+    private TpaManager tpaManager;
+    @Getter
+    private BackManager backManager;
+    @Getter
+    private TeleportService teleportService;
+    @Getter
+    private NoticeManager noticeManager;
+    @Getter
+    private CooldownManager cooldownManager;
+    @Getter
+    private HomeLimitManager homeLimitManager;
+    @Getter
+    private AuditLog auditLog;
+    @Getter
+    private LastSeenTracker lastSeenTracker;
+    @Getter
+    private HomeMaintenance homeMaintenance;
+    @Getter
     private Config config;
+    @Getter
+    private volatile EssentialsSettings settings;
+    private final Set<Feature> registeredFeatures = EnumSet.noneOf(Feature.class);
 
     @Override
     public void onLoad() {
@@ -45,64 +86,146 @@ public class EssentialsPlugin extends Plugin {
     @Override
     public void onEnable() {
         this.pluginLogger.info("Essentials plugin is enabling...");
+        settings = EssentialsSettings.from(config);
+
+        // Set up metrics first so that loading the managers is measured
+        Path dataFolder = this.pluginContainer.dataFolder();
+        applyMetrics(settings.metrics());
 
         // Initialize managers
-        warpManager = new WarpManager(this.pluginContainer.dataFolder());
-        homeManager = new HomeManager(this.pluginContainer.dataFolder());
-        hubManager = new HubManager(this.pluginContainer.dataFolder());
+        EssentialsSettings.Storage storage = settings.storage();
+        storageBackend = createStorageBackend(dataFolder, storage);
+        boolean prebuiltLocations = settings.cache().prebuiltLocations();
+        warpManager = new WarpManager(dataFolder, storageBackend, storage.saveIntervalMillis(), prebuiltLocations);
+        homeManager = new HomeManager(dataFolder, storageBackend, storage.saveIntervalMillis(), storage.homeEvictDelayMillis(),
+                storage.packedHomeIndex());
+        hubManager = new HubManager(dataFolder, storageBackend, storage.saveIntervalMillis(), prebuiltLocations);
+        lastSeenTracker = new LastSeenTracker(dataFolder, storage.saveIntervalMillis());
+        homeMaintenance = new HomeMaintenance(homeManager, lastSeenTracker);
+        auditLog = new AuditLog(dataFolder, settings.audit());
+        backManager = new BackManager(storageBackend, settings.back().historySize(), settings.back().cacheSize(), storage.saveIntervalMillis());
+        // Teleport origins are only recorded while /back is enabled
+        teleportService = new TeleportService(this, backManager, auditLog, settings.teleport());
+        teleportService.start();
+        noticeManager = new NoticeManager(this, config, settings);
+        tpaManager = new TpaManager(teleportService, settings.tpa().timeoutSeconds(), settings.tpa().maxPendingPerTarget());
+        tpaManager.start(this);
+        cooldownManager = new CooldownManager();
+        homeLimitManager = new HomeLimitManager();
 
-        // Get feature configuration
-        ConfigSection features = config.getSection("features");
+        // Register commands of enabled features, the others are registered when enabled by a reload
+        registerEnabledFeatures();
 
-        // Register commands based on configuration
-        CommandRegistry commandRegistry = Registries.COMMANDS;
+        Registries.COMMANDS.register(new EssentialsCommand(new JsonTransfer(warpManager, homeManager, hubManager), dataFolder));
+        this.pluginLogger.info("Registered command: /essentials");
 
-        if (features.getBoolean("ping", true)) {
-            commandRegistry.register(new PingCommand());
-            this.pluginLogger.info("Registered command: /ping");
-        }
+        // Register event listeners
+        // World load/unload events keep the location cache valid, so the listener is always needed
+        EventBus eventBus = Server.getInstance().getEventBus();
+        eventListener = new EventListener();
+        eventBus.registerListener(eventListener);
 
-        if (features.getBoolean("back", true)) {
-            commandRegistry.register(new BackCommand());
-            this.pluginLogger.info("Registered command: /back");
-        }
+        this.pluginLogger.info("Essentials plugin enabled successfully!");
+    }
 
-        if (features.getBoolean("tpa", true)) {
-            commandRegistry.register(new TpaCommand());
-            this.pluginLogger.info("Registered command: /tpa");
-        }
+    /**
+     * Reload config.yml and apply the new settings.
+     * <p>
+     * Feature toggles, notice, TPA limits and metrics take effect immediately;
+     * storage, cache and back history settings need a restart. The file is read
+     * in the background and the settings are applied on the server thread.
+     *
+     * @return future completed once the new settings are applied
+     */
+    public CompletableFuture<Void> reloadSettings() {
+        return EssentialsIO.onServerThread(EssentialsIO.supply(CONFIG_LANE, () -> {
+            config.reload();
+            return EssentialsSettings.from(config);
+        })).thenAccept(loaded -> updateSettings(current -> loaded));
+    }
 
-        if (features.getBoolean("warp", true)) {
-            commandRegistry.register(new WarpCommand(warpManager));
-            this.pluginLogger.info("Registered command: /warp");
-        }
+    /**
+     * Replace the settings and apply them to the running plugin.
+     *
+     * @param update function computing the new settings from the current ones
+     */
+    public synchronized void updateSettings(UnaryOperator<EssentialsSettings> update) {
+        settings = update.apply(settings);
+        noticeManager.apply(settings);
+        tpaManager.configure(settings.tpa().timeoutSeconds(), settings.tpa().maxPendingPerTarget());
+        teleportService.configure(settings.teleport());
+        applyMetrics(settings.metrics());
+        homeLimitManager.invalidateAll();
+        registerEnabledFeatures();
+    }
 
-        if (features.getBoolean("home", true)) {
-            commandRegistry.register(new HomeCommand(homeManager));
-            this.pluginLogger.info("Registered command: /home");
+    private StorageBackend createStorageBackend(Path dataFolder, EssentialsSettings.Storage storage) {
+        if (!storage.isShared()) {
+            return new LogStorageBackend(dataFolder, storage.compactThreshold(), storage.floatAngles());
         }
+        EssentialsSettings.Database database = storage.database();
+        this.pluginLogger.info("Using shared database storage at {}", database.url());
+        return new JdbcStorageBackend(database.url(), database.user(), database.password(),
+                database.tablePrefix(), database.pollIntervalMillis());
+    }
 
-        if (features.getBoolean("notice", true)) {
-            commandRegistry.register(new NoticeCommand());
-            this.pluginLogger.info("Registered command: /notice");
+    private void applyMetrics(EssentialsSettings.Metrics metrics) {
+        Metrics.setEnabled(metrics.enabled());
+        if (prometheusExporter != null) {
+            prometheusExporter.close();
+            prometheusExporter = null;
         }
-
-        if (features.getBoolean("hub", true)) {
-            commandRegistry.register(new HubCommand(hubManager));
-            commandRegistry.register(new SetHubCommand(hubManager));
-            this.pluginLogger.info("Registered commands: /hub, /sethub");
+        if (metrics.enabled() && !metrics.prometheusFile().isBlank()) {
+            Path file = this.pluginContainer.dataFolder().resolve(metrics.prometheusFile());
+            prometheusExporter = new PrometheusExporter(file, metrics.prometheusIntervalMillis());
+            this.pluginLogger.info("Writing metrics to {}", file);
         }
+    }
 
-        // Register event listeners
-        // Need to listen to PlayerJoinEvent if notice is enabled
-        // Need to listen to EntityDieEvent and PlayerDisconnectEvent if back or tpa is enabled
-        if (features.getBoolean("back", true) || features.getBoolean("tpa", true) || features.getBoolean("notice", true)) {
-            EventBus eventBus = Server.getInstance().getEventBus();
-            eventListener = new EventListener();
-            eventBus.registerListener(eventListener);
+    private void registerEnabledFeatures() {
+        for (Feature feature : Feature.values()) {
+            if (settings.features().isEnabled(feature) && registeredFeatures.add(feature)) {
+                registerCommands(feature);
+            }
         }
+    }
 
-        this.pluginLogger.info("Essentials plugin enabled successfully!");
+    private void registerCommands(Feature feature) {
+        CommandRegistry commandRegistry = Registries.COMMANDS;
+        switch (feature) {
+            case PING -> {
+                commandRegistry.register(new PingCommand());
+                this.pluginLogger.info("Registered command: /ping");
+            }
+            case BACK -> {
+                commandRegistry.register(new BackCommand(backManager, teleportService));
+                this.pluginLogger.info("Registered command: /back");
+            }
+            case TPA -> {
+                commandRegistry.register(new TpaCommand(tpaManager));
+                commandRegistry.register(new TpaHereCommand(tpaManager));
+                commandRegistry.register(new TpAcceptCommand(tpaManager));
+                commandRegistry.register(new TpDenyCommand(tpaManager));
+                this.pluginLogger.info("Registered commands: /tpa, /tpahere, /tpaccept, /tpdeny");
+            }
+            case WARP -> {
+                commandRegistry.register(new WarpCommand(warpManager, teleportService, auditLog, this.pluginContainer.dataFolder()));
+                this.pluginLogger.info("Registered command: /warp");
+            }
+            case HOME -> {
+                commandRegistry.register(new HomeCommand(homeManager, teleportService, homeLimitManager));
+                this.pluginLogger.info("Registered command: /home");
+            }
+            case NOTICE -> {
+                commandRegistry.register(new NoticeCommand(noticeManager, auditLog));
+                this.pluginLogger.info("Registered command: /notice");
+            }
+            case HUB -> {
+                commandRegistry.register(new HubCommand(hubManager, teleportService));
+                commandRegistry.register(new SetHubCommand(hubManager, auditLog));
+                this.pluginLogger.info("Registered commands: /hub, /sethub");
+            }
+        }
     }
 
     @Override
@@ -114,6 +237,33 @@ public class EssentialsPlugin extends Plugin {
             Server.getInstance().getEventBus().unregisterListener(eventListener);
         }
 
+        // Let loads, imports and config writes in progress finish, then flush pending data before the server shuts down
+        EssentialsIO.awaitIdle(IO_SHUTDOWN_TIMEOUT_MILLIS);
+        if (warpManager != null) {
+            warpManager.close();
+        }
+        if (homeManager != null) {
+            homeManager.close();
+        }
+        if (hubManager != null) {
+            hubManager.close();
+        }
+        if (backManager != null) {
+            backManager.close();
+        }
+        if (lastSeenTracker != null) {
+            lastSeenTracker.close();
+        }
+        if (auditLog != null) {
+            auditLog.close();
+        }
+        if (storageBackend != null) {
+            storageBackend.close();
+        }
+        if (prometheusExporter != null) {
+            prometheusExporter.close();
+        }
+
         this.pluginLogger.info("Essentials plugin disabled!");
     }
 
@@ -142,8 +292,98 @@ public class EssentialsPlugin extends Plugin {
             ConfigSection noticeSection = new ConfigSection();
             noticeSection.put("content", "Welcome to the server!\\n\\nPlease read the rules and have fun!");
             noticeSection.put("title", "Server Notice");
+            noticeSection.put("join-delay", 20);
             defaultConfig.put("notice", noticeSection);
 
+            // Create default tpa section
+            ConfigSection tpaSection = new ConfigSection();
+            tpaSection.put("timeout", 60);
+            tpaSection.put("max-pending", 5);
+            defaultConfig.put("tpa", tpaSection);
+
+            // Create default teleport section
+            ConfigSection teleportSection = new ConfigSection();
+            teleportSection.put("batch-per-tick", 20);
+            teleportSection.put("preload-radius", 1);
+            teleportSection.put("warmup", 3);
+            teleportSection.put("cancel-on-move", true);
+            teleportSection.put("preload-timeout", 10);
+            defaultConfig.put("teleport", teleportSection);
+
+            // Create default back section
+            ConfigSection backSection = new ConfigSection();
+            backSection.put("history-size", 5);
+            backSection.put("cache-size", 1000);
+            defaultConfig.put("back", backSection);
+
+            // Create default storage section
+            ConfigSection storageSection = new ConfigSection();
+            storageSection.put("save-interval", 5);
+            storageSection.put("home-evict-delay", 60);
+            storageSection.put("compact-threshold", 1000);
+            storageSection.put("float-angles", false);
+            storageSection.put("home-index", "packed");
+            storageSection.put("backend", "file");
+            ConfigSection databaseSection = new ConfigSection();
+            databaseSection.put("url", "jdbc:mysql://localhost:3306/essentials");
+            databaseSection.put("user", "");
+            databaseSection.put("password", "");
+            databaseSection.put("table-prefix", "essentials_");
+            databaseSection.put("poll-interval", 2);
+            storageSection.put("database", databaseSection);
+            defaultConfig.put("storage", storageSection);
+
+            // Create default cache section
+            ConfigSection cacheSection = new ConfigSection();
+            cacheSection.put("prebuilt-locations", true);
+            defaultConfig.put("cache", cacheSection);
+
+            // Create default metrics section
+            ConfigSection metricsSection = new ConfigSection();
+            metricsSection.put("enabled", true);
+            metricsSection.put("prometheus-file", "");
+            metricsSection.put("prometheus-interval", 60);
+            defaultConfig.put("metrics", metricsSection);
+
+            // Create default cooldowns section
+            ConfigSection commandCooldowns = new ConfigSection();
+            commandCooldowns.put("default", cooldownRule(5, 1));
+            commandCooldowns.put("hub", cooldownRule(1, 3));
+            commandCooldowns.put("back", cooldownRule(1, 3));
+            commandCooldowns.put("home.tp", cooldownRule(1, 3));
+            commandCooldowns.put("warp.tp", cooldownRule(1, 3));
+            commandCooldowns.put("tpa", cooldownRule(1, 10));
+            commandCooldowns.put("tpahere", cooldownRule(1, 10));
+            ConfigSection vipCooldowns = new ConfigSection();
+            vipCooldowns.put("tpa", cooldownRule(2, 5));
+            vipCooldowns.put("tpahere", cooldownRule(2, 5));
+            ConfigSection groupCooldowns = new ConfigSection();
+            groupCooldowns.put("vip", vipCooldowns);
+            ConfigSection cooldownsSection = new ConfigSection();
+            cooldownsSection.put("enabled", true);
+            cooldownsSection.put("commands", commandCooldowns);
+            cooldownsSection.put("groups", groupCooldowns);
+            defaultConfig.put("cooldowns", cooldownsSection);
+
+            // Create default home limits section
+            ConfigSection homeLimitsSection = new ConfigSection();
+            homeLimitsSection.put("enabled", true);
+            homeLimitsSection.put("default", 10);
+            homeLimitsSection.put("ranks", List.of(25, 50, 100));
+            homeLimitsSection.put("refresh-interval", 60);
+            defaultConfig.put("home-limits", homeLimitsSection);
+
+            // Create default audit section
+            ConfigSection auditSection = new ConfigSection();
+            auditSection.put("enabled", true);
+            auditSection.put("queue-size", 8192);
+            auditSection.put("flush-interval", 1);
+            auditSection.put("max-file-size", 16);
+            auditSection.put("rotate-interval", 24);
+            auditSection.put("compress", true);
+            auditSection.put("max-files", 30);
+            defaultConfig.put("audit", auditSection);
+
             // Load config with defaults
             config = new Config(configFile, Config.YAML, defaultConfig);
 
@@ -165,4 +405,11 @@ public class EssentialsPlugin extends Plugin {
             this.pluginLogger.error("Failed to load configuration!", e);
         }
     }
+
+    private static ConfigSection cooldownRule(int burst, int refillSeconds) {
+        ConfigSection rule = new ConfigSection();
+        rule.put("burst", burst);
+        rule.put("refill", refillSeconds);
+        return rule;
+    }
 }
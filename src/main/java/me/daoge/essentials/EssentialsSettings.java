@@ -0,0 +1,332 @@
+package me.daoge.essentials;
+
+import org.allaymc.api.utils.config.Config;
+import org.allaymc.api.utils.config.ConfigSection;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable, typed snapshot of config.yml.
+ * <p>
+ * The snapshot is built once when the plugin is enabled and replaced as a whole
+ * by {@code /essentials reload}, so runtime code reads plain fields instead of
+ * looking up keys in the mutable config. Settings that size data structures or
+ * files (storage, back history) only take effect after a restart.
+ *
+ * @param features   feature toggles
+ * @param notice     notice settings
+ * @param tpa        teleport request settings
+ * @param teleport   teleport settings
+ * @param back       back history settings
+ * @param storage    storage settings
+ * @param cache      cache settings
+ * @param metrics    metrics settings
+ * @param cooldowns  command rate limits
+ * @param homeLimits per-player home limits
+ * @param audit      audit log settings
+ * @author daoge
+ */
+public record EssentialsSettings(
+        Features features,
+        Notice notice,
+        Tpa tpa,
+        Teleport teleport,
+        Back back,
+        Storage storage,
+        Cache cache,
+        Metrics metrics,
+        Cooldowns cooldowns,
+        HomeLimits homeLimits,
+        Audit audit
+) {
+
+    /**
+     * Read the settings from the config, falling back to the defaults for missing keys.
+     *
+     * @param config plugin config
+     * @return the settings
+     */
+    public static EssentialsSettings from(Config config) {
+        ConfigSection features = section(config, "features");
+        ConfigSection notice = section(config, "notice");
+        ConfigSection tpa = section(config, "tpa");
+        ConfigSection teleport = section(config, "teleport");
+        ConfigSection back = section(config, "back");
+        ConfigSection storage = section(config, "storage");
+        ConfigSection cache = section(config, "cache");
+        ConfigSection metrics = section(config, "metrics");
+        ConfigSection cooldowns = section(config, "cooldowns");
+        ConfigSection homeLimits = section(config, "home-limits");
+        ConfigSection audit = section(config, "audit");
+        return new EssentialsSettings(
+                new Features(
+                        features.getBoolean(Feature.PING.configKey(), true),
+                        features.getBoolean(Feature.BACK.configKey(), true),
+                        features.getBoolean(Feature.TPA.configKey(), true),
+                        features.getBoolean(Feature.HOME.configKey(), true),
+                        features.getBoolean(Feature.WARP.configKey(), true),
+                        features.getBoolean(Feature.NOTICE.configKey(), true),
+                        features.getBoolean(Feature.HUB.configKey(), true)
+                ),
+                new Notice(
+                        notice.getString("title", "Server Notice"),
+                        notice.getString("content", "Welcome to the server!"),
+                        Math.max(0, notice.getInt("join-delay", 20))
+                ),
+                new Tpa(
+                        Math.max(1, tpa.getInt("timeout", 60)),
+                        Math.max(1, tpa.getInt("max-pending", 5))
+                ),
+                new Teleport(
+                        Math.max(1, teleport.getInt("batch-per-tick", 20)),
+                        Math.max(0, teleport.getInt("preload-radius", 1)),
+                        Math.max(0, teleport.getInt("warmup", 3)),
+                        teleport.getBoolean("cancel-on-move", true),
+                        Math.max(1, teleport.getInt("preload-timeout", 10))
+                ),
+                new Back(
+                        Math.max(1, back.getInt("history-size", 5)),
+                        Math.max(0, back.getInt("cache-size", 1000))
+                ),
+                new Storage(
+                        storage.getInt("save-interval", 5) * 1000L,
+                        storage.getInt("home-evict-delay", 60) * 1000L,
+                        storage.getInt("compact-threshold", 1000),
+                        storage.getBoolean("float-angles", false),
+                        !"objects".equalsIgnoreCase(storage.getString("home-index", "packed")),
+                        storage.getString("backend", "file"),
+                        database(section(storage, "database"))
+                ),
+                new Cache(
+                        cache.getBoolean("prebuilt-locations", true)
+                ),
+                new Metrics(
+                        metrics.getBoolean("enabled", true),
+                        metrics.getString("prometheus-file", ""),
+                        metrics.getInt("prometheus-interval", 60) * 1000L
+                ),
+                new Cooldowns(
+                        cooldowns.getBoolean("enabled", true),
+                        rules(section(cooldowns, "commands")),
+                        groups(section(cooldowns, "groups"))
+                ),
+                new HomeLimits(
+                        homeLimits.getBoolean("enabled", true),
+                        Math.max(0, homeLimits.getInt("default", 10)),
+                        ranks(homeLimits.get("ranks")),
+                        Math.max(1, homeLimits.getInt("refresh-interval", 60)) * 1000L
+                ),
+                new Audit(
+                        audit.getBoolean("enabled", true),
+                        Math.max(16, audit.getInt("queue-size", 8192)),
+                        Math.max(1, audit.getInt("flush-interval", 1)) * 1000L,
+                        Math.max(1, audit.getInt("max-file-size", 16)) * 1024L * 1024L,
+                        Math.max(1, audit.getInt("rotate-interval", 24)) * 3_600_000L,
+                        audit.getBoolean("compress", true),
+                        Math.max(0, audit.getInt("max-files", 30))
+                )
+        );
+    }
+
+    public EssentialsSettings withNotice(Notice notice) {
+        return new EssentialsSettings(features, notice, tpa, teleport, back, storage, cache, metrics, cooldowns, homeLimits, audit);
+    }
+
+    private static ConfigSection section(Config config, String key) {
+        ConfigSection section = config.getSection(key);
+        return section != null ? section : new ConfigSection();
+    }
+
+    private static ConfigSection section(ConfigSection parent, String key) {
+        ConfigSection section = parent.isSection(key) ? parent.getSection(key) : null;
+        return section != null ? section : new ConfigSection();
+    }
+
+    private static Map<String, Rule> rules(Map<?, ?> section) {
+        // Command paths contain dots, which the section getters treat as nesting, so read the map directly
+        Map<String, Rule> rules = new LinkedHashMap<>();
+        section.forEach((command, value) -> {
+            if (value instanceof Map<?, ?> rule) {
+                rules.put(command.toString().toLowerCase(Locale.ROOT), new Rule(
+                        Math.max(1, number(rule.get("burst"), 1).intValue()),
+                        Math.max(0, Math.round(number(rule.get("refill"), 0).doubleValue() * 1000))
+                ));
+            }
+        });
+        return Collections.unmodifiableMap(rules);
+    }
+
+    private static Map<String, Map<String, Rule>> groups(Map<?, ?> section) {
+        // Kept in config order, the first group a player is in wins
+        Map<String, Map<String, Rule>> groups = new LinkedHashMap<>();
+        section.forEach((group, rules) -> {
+            if (rules instanceof Map<?, ?> map) {
+                groups.put(group.toString(), rules(map));
+            }
+        });
+        return Collections.unmodifiableMap(groups);
+    }
+
+    private static List<Integer> ranks(Object value) {
+        if (!(value instanceof List<?> list)) {
+            return List.of();
+        }
+        // Highest limit first, so that resolving stops at the first rank a player has
+        return list.stream()
+                .filter(Number.class::isInstance)
+                .map(rank -> Math.max(0, ((Number) rank).intValue()))
+                .distinct()
+                .sorted(Comparator.reverseOrder())
+                .toList();
+    }
+
+    private static Database database(ConfigSection section) {
+        return new Database(
+                section.getString("url", ""),
+                section.getString("user", ""),
+                section.getString("password", ""),
+                section.getString("table-prefix", "essentials_"),
+                Math.max(1, section.getInt("poll-interval", 2)) * 1000L
+        );
+    }
+
+    private static Number number(Object value, Number defaultValue) {
+        return value instanceof Number number ? number : defaultValue;
+    }
+
+    public record Features(boolean ping, boolean back, boolean tpa, boolean home, boolean warp, boolean notice,
+                           boolean hub) {
+
+        public boolean isEnabled(Feature feature) {
+            return switch (feature) {
+                case PING -> ping;
+                case BACK -> back;
+                case TPA -> tpa;
+                case HOME -> home;
+                case WARP -> warp;
+                case NOTICE -> notice;
+                case HUB -> hub;
+            };
+        }
+    }
+
+    /**
+     * @param title          form title
+     * @param content        content as written in the config, with {@code \n} escapes
+     * @param joinDelayTicks ticks to wait after joining before showing the notice
+     */
+    public record Notice(String title, String content, int joinDelayTicks) {
+
+        public Notice withContent(String content) {
+            return new Notice(title, content, joinDelayTicks);
+        }
+    }
+
+    /**
+     * @param timeoutSeconds      seconds before a request expires
+     * @param maxPendingPerTarget maximum number of requests queued for one player
+     */
+    public record Tpa(int timeoutSeconds, int maxPendingPerTarget) {
+    }
+
+    /**
+     * @param batchPerTick          maximum number of players teleported per tick by a batch teleport
+     * @param preloadRadius         radius in chunks around a destination loaded before teleporting
+     * @param warmupSeconds         countdown before a command teleport, 0 to teleport as soon as the chunks are loaded
+     * @param cancelOnMove          whether moving during the countdown cancels the teleport
+     * @param preloadTimeoutSeconds seconds to wait for the destination chunks before giving up
+     */
+    public record Teleport(int batchPerTick, int preloadRadius, int warmupSeconds, boolean cancelOnMove,
+                           int preloadTimeoutSeconds) {
+    }
+
+    /**
+     * @param historySize number of entries kept per player
+     * @param cacheSize   number of offline players' histories kept in memory
+     */
+    public record Back(int historySize, int cacheSize) {
+    }
+
+    /**
+     * @param saveIntervalMillis   delay between background flushes
+     * @param homeEvictDelayMillis how long a disconnected player's homes stay in memory
+     * @param compactThreshold     log entries before a store is compacted
+     * @param floatAngles          whether to store angles as floats
+     * @param packedHomeIndex      whether the index of all homes uses the columnar layout
+     * @param backend              {@code file} for local files or {@code database} for a database shared by several servers
+     * @param database             database connection, used by the {@code database} backend
+     */
+    public record Storage(long saveIntervalMillis, long homeEvictDelayMillis, int compactThreshold,
+                          boolean floatAngles, boolean packedHomeIndex, String backend, Database database) {
+
+        public boolean isShared() {
+            return "database".equalsIgnoreCase(backend);
+        }
+    }
+
+    /**
+     * @param url                JDBC url
+     * @param user               database user, empty for none
+     * @param password           database password
+     * @param tablePrefix        prefix of the table names
+     * @param pollIntervalMillis delay between polls for changes made by other servers
+     */
+    public record Database(String url, String user, String password, String tablePrefix, long pollIntervalMillis) {
+    }
+
+    /**
+     * @param prebuiltLocations whether to reuse resolved hub and warp locations
+     */
+    public record Cache(boolean prebuiltLocations) {
+    }
+
+    /**
+     * @param enabled                  whether metrics are recorded
+     * @param prometheusFile           file to write metrics to, empty to disable
+     * @param prometheusIntervalMillis delay between writes of the metrics file
+     */
+    public record Metrics(boolean enabled, String prometheusFile, long prometheusIntervalMillis) {
+    }
+
+    /**
+     * @param enabled  whether commands are rate limited
+     * @param commands limits by command path, including the {@code default} limit
+     * @param groups   limits by command path of each group, in config order
+     */
+    public record Cooldowns(boolean enabled, Map<String, Rule> commands, Map<String, Map<String, Rule>> groups) {
+    }
+
+    /**
+     * @param burst        number of uses available at once
+     * @param refillMillis time to regain one use
+     */
+    public record Rule(int burst, long refillMillis) {
+    }
+
+    /**
+     * @param enabled               whether the number of homes per player is limited
+     * @param defaultLimit          homes a player may have without a limit permission
+     * @param ranks                 limits granted by {@code essentials.home.limit.<N>}, highest first
+     * @param refreshIntervalMillis how long a player's resolved limit is cached
+     */
+    public record HomeLimits(boolean enabled, int defaultLimit, List<Integer> ranks, long refreshIntervalMillis) {
+    }
+
+    /**
+     * @param enabled              whether teleports and admin changes are recorded
+     * @param queueSize            events waiting to be written at most, further events are dropped
+     * @param flushIntervalMillis  delay between writes of the queued events
+     * @param maxFileBytes         uncompressed size at which a new file is started
+     * @param rotateIntervalMillis age at which a new file is started
+     * @param compress             whether files are gzip-compressed
+     * @param maxFiles             number of files kept, 0 to keep all
+     */
+    public record Audit(boolean enabled, int queueSize, long flushIntervalMillis, long maxFileBytes,
+                        long rotateIntervalMillis, boolean compress, int maxFiles) {
+    }
+}
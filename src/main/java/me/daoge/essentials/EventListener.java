@@ -1,23 +1,20 @@
 package me.daoge.essentials;
 
 import lombok.extern.slf4j.Slf4j;
-import me.daoge.essentials.command.BackCommand;
-import me.daoge.essentials.command.NoticeCommand;
-import me.daoge.essentials.command.TpaCommand;
+import me.daoge.essentials.metrics.Metrics;
 import org.allaymc.api.entity.interfaces.EntityPlayer;
 import org.allaymc.api.eventbus.EventHandler;
 import org.allaymc.api.eventbus.event.entity.EntityDieEvent;
 import org.allaymc.api.eventbus.event.server.PlayerDisconnectEvent;
 import org.allaymc.api.eventbus.event.server.PlayerJoinEvent;
-import org.allaymc.api.math.location.Location3d;
+import org.allaymc.api.eventbus.event.world.WorldLoadEvent;
+import org.allaymc.api.eventbus.event.world.WorldUnloadEvent;
 import org.allaymc.api.player.Player;
-import org.allaymc.api.utils.config.Config;
-import org.allaymc.api.utils.config.ConfigSection;
 
 import java.util.UUID;
 
 /**
- * Listener for player death, disconnect and join events
+ * Listener for player death, disconnect and join events, and world load/unload events
  *
  * @author daoge
  */
@@ -26,34 +23,68 @@ public class EventListener {
 
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
-        Player player = event.getPlayer();
+        Metrics.time("event.join", () -> handlePlayerJoin(event.getPlayer()));
+    }
 
-        // Check if notice feature is enabled
-        Config config = EssentialsPlugin.getInstance().getConfig();
-        ConfigSection features = config.getSection("features");
+    private void handlePlayerJoin(Player player) {
+        // Show the notice if enabled, deferred by the configured delay
+        EssentialsPlugin.getInstance().getNoticeManager().onJoin(player);
 
-        if (features.getBoolean("notice", true)) {
-            // Show notice to player
-            NoticeCommand.showNotice(player);
-        }
+        // Remember when the player was last online, for purging inactive players
+        EssentialsPlugin.getInstance().getLastSeenTracker().markSeen(player.getLoginData().getUuid());
+
+        // Load the player's homes and back history while they are online
+        UUID playerUUID = player.getLoginData().getUuid();
+        EssentialsPlugin.getInstance().getHomeManager().loadPlayer(playerUUID);
+        EssentialsPlugin.getInstance().getBackManager().loadPlayer(playerUUID);
+        // Resolve the home limit again, permissions may have changed while the player was away
+        EssentialsPlugin.getInstance().getHomeLimitManager().invalidate(playerUUID);
     }
 
     @EventHandler
     public void onPlayerDisconnect(PlayerDisconnectEvent event) {
-        UUID playerUUID = event.getPlayer().getLoginData().getUuid();
+        Metrics.time("event.disconnect", () -> handlePlayerDisconnect(event.getPlayer()));
+    }
+
+    private void handlePlayerDisconnect(Player player) {
+        UUID playerUUID = player.getLoginData().getUuid();
+        // Forget the player's command cooldowns
+        EntityPlayer entityPlayer = player.getControlledEntity();
+        if (entityPlayer != null) {
+            EssentialsPlugin.getInstance().getCooldownManager().removePlayer(entityPlayer.getRuntimeId());
+        }
+        // Remember when the player was last online, for purging inactive players
+        EssentialsPlugin.getInstance().getLastSeenTracker().markSeen(playerUUID);
         // Clean up TPA requests when player disconnects
-        TpaCommand.removePendingRequest(playerUUID);
-        // Clean up death location when player disconnects
-        BackCommand.removeDeathLocation(playerUUID);
+        EssentialsPlugin.getInstance().getTpaManager().removePlayer(playerUUID);
+        // Keep the back history in the offline cache, it is persisted
+        EssentialsPlugin.getInstance().getBackManager().unloadPlayer(playerUUID);
+        // Evict the player's homes after the grace period
+        EssentialsPlugin.getInstance().getHomeManager().unloadPlayer(playerUUID);
+        EssentialsPlugin.getInstance().getHomeLimitManager().invalidate(playerUUID);
     }
 
 
     @EventHandler
     public void onEntityDie(EntityDieEvent event) {
-        if (event.getEntity() instanceof EntityPlayer entityPlayer) {
-            var deathLoc = new Location3d(entityPlayer.getLocation());
-            BackCommand.setDeathLocation(entityPlayer.getUniqueId(), deathLoc);
+        if (event.getEntity() instanceof EntityPlayer entityPlayer && Feature.BACK.isEnabled()) {
+            Metrics.time("event.death", () -> {
+                var deathLoc = LocationRecord.from(BackManager.REASON_DEATH, entityPlayer.getLocation());
+                EssentialsPlugin.getInstance().getBackManager().record(entityPlayer.getUniqueId(), deathLoc);
+            });
             log.debug("Recorded death location for player: {}", entityPlayer.getDisplayName());
         }
     }
+
+    @EventHandler
+    public void onWorldLoad(WorldLoadEvent event) {
+        // Cached dimensions may now resolve differently
+        Metrics.time("event.world", LocationResolver::invalidate);
+    }
+
+    @EventHandler
+    public void onWorldUnload(WorldUnloadEvent event) {
+        // Drop references to the unloaded world's dimensions
+        Metrics.time("event.world", LocationResolver::invalidate);
+    }
 }
@@ -0,0 +1,126 @@
+package me.daoge.essentials;
+
+import me.daoge.essentials.metrics.Metrics;
+import org.allaymc.api.command.CommandResult;
+import org.allaymc.api.command.tree.CommandContext;
+
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Features that can be toggled in the {@code features} section of config.yml.
+ * <p>
+ * Commands of a feature are registered the first time it is enabled and stay
+ * registered; their executors are wrapped with {@link #guard} so that disabling
+ * the feature by a config reload takes effect immediately.
+ *
+ * @author daoge
+ */
+public enum Feature {
+    PING("ping"),
+    BACK("back"),
+    TPA("tpa"),
+    HOME("home"),
+    WARP("warp"),
+    NOTICE("notice"),
+    HUB("hub");
+
+    public static final String STILL_LOADING_MESSAGE = "Data is still loading, please try again in a moment!";
+
+    private final String configKey;
+
+    Feature(String configKey) {
+        this.configKey = configKey;
+    }
+
+    /**
+     * @return key of the toggle in the {@code features} section
+     */
+    public String configKey() {
+        return configKey;
+    }
+
+    /**
+     * @return whether the feature is enabled in the current settings
+     */
+    public boolean isEnabled() {
+        return EssentialsPlugin.getInstance().getSettings().features().isEnabled(this);
+    }
+
+    /**
+     * @return whether the feature's data has been loaded; home and warp data load in the background at startup
+     */
+    public boolean isLoaded() {
+        EssentialsPlugin plugin = EssentialsPlugin.getInstance();
+        return switch (this) {
+            case HOME -> plugin.getHomeManager().isLoaded();
+            case WARP -> plugin.getWarpManager().isLoaded();
+            default -> true;
+        };
+    }
+
+    /**
+     * Wrap a command executor so that it is rate limited by {@link CooldownManager#limit}
+     * and timed by {@link Metrics#command}, both under the same command path. Every
+     * command executor goes through this, directly or via {@link #guard}.
+     *
+     * @param command command path, e.g. {@code essentials.reload}
+     * @param handler command executor
+     * @return the instrumented executor
+     */
+    public static <S> BiFunction<CommandContext, S, CommandResult> instrument(String command, BiFunction<CommandContext, S, CommandResult> handler) {
+        return CooldownManager.limit(command, Metrics.command(command, handler));
+    }
+
+    /**
+     * Wrap a command executor that does not need a typed sender.
+     *
+     * @see #instrument(String, BiFunction)
+     */
+    public static Function<CommandContext, CommandResult> instrument(String command, Function<CommandContext, CommandResult> handler) {
+        return CooldownManager.limit(command, Metrics.command(command, handler));
+    }
+
+    /**
+     * Wrap a command executor so that it fails while the feature is disabled or its data is loading,
+     * and is instrumented by {@link #instrument}.
+     *
+     * @param command command path, e.g. {@code home.tp}
+     * @param handler command executor
+     * @return the guarded executor
+     */
+    public <S> BiFunction<CommandContext, S, CommandResult> guard(String command, BiFunction<CommandContext, S, CommandResult> handler) {
+        BiFunction<CommandContext, S, CommandResult> limited = instrument(command, handler);
+        return (context, sender) -> {
+            if (!isEnabled()) {
+                context.addError("This command is disabled!");
+                return context.fail();
+            }
+            if (!isLoaded()) {
+                context.addError(STILL_LOADING_MESSAGE);
+                return context.fail();
+            }
+            return limited.apply(context, sender);
+        };
+    }
+
+    /**
+     * Wrap a command executor that does not need a typed sender.
+     *
+     * @see #guard(String, BiFunction)
+     */
+    public Function<CommandContext, CommandResult> guard(String command, Function<CommandContext, CommandResult> handler) {
+        Function<CommandContext, CommandResult> limited = instrument(command, handler);
+        return context -> {
+            if (!isEnabled()) {
+                context.addError("This command is disabled!");
+                return context.fail();
+            }
+            if (!isLoaded()) {
+                context.addError(STILL_LOADING_MESSAGE);
+                return context.fail();
+            }
+            return limited.apply(context);
+        };
+    }
+}
@@ -0,0 +1,65 @@
+package me.daoge.essentials;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Index of the homes of all players, including offline ones, for region queries.
+ * <p>
+ * The index is the only place where every home is held in memory, so its layout
+ * decides the plugin's memory use on servers with many homes. Two layouts are
+ * available, selected by {@code storage.home-index}: plain objects in a
+ * {@link SpatialIndex}, and the columnar {@link PackedHomeIndex}. Both are
+ * thread-safe and return equal records.
+ *
+ * @author daoge
+ */
+public interface HomeIndex {
+
+    /**
+     * @param packed whether to use the columnar layout
+     * @return an empty index
+     */
+    static HomeIndex create(boolean packed) {
+        return packed ? new PackedHomeIndex() : new ObjectHomeIndex();
+    }
+
+    /**
+     * Add a home, replacing the same home at the same location.
+     *
+     * @param key  owner and normalized name
+     * @param home the home
+     */
+    void put(HomeManager.HomeKey key, LocationRecord home);
+
+    /**
+     * Remove a home.
+     *
+     * @param key  owner and normalized name
+     * @param home the record the home was added with
+     */
+    void remove(HomeManager.HomeKey key, LocationRecord home);
+
+    /**
+     * Remove all homes of the given players. This scans the whole index, so
+     * callers should remove many players at once.
+     *
+     * @param owners uuids of the players
+     */
+    void removeOwners(Set<UUID> owners);
+
+    /**
+     * Visit the homes within a horizontal radius of a location, in the same dimension.
+     *
+     * @param center   query point; only its world, dimension and coordinates are used
+     * @param radius   radius in blocks
+     * @param consumer receives the homes, in no particular order
+     */
+    void withinRadius(LocationRecord center, double radius, Consumer<SpatialIndex.Match<HomeManager.HomeKey>> consumer);
+
+    /**
+     * @return number of homes
+     */
+    int size();
+}
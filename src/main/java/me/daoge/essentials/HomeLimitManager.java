@@ -0,0 +1,86 @@
+package me.daoge.essentials;
+
+import org.allaymc.api.entity.interfaces.EntityPlayer;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves how many homes a player may have.
+ * <p>
+ * Players get the {@code default} limit of the {@code home-limits} section of
+ * config.yml, or the highest configured rank {@code N} whose permission
+ * {@code essentials.home.limit.<N>} they have; {@value #UNLIMITED_PERMISSION}
+ * lifts the limit. Resolving checks one permission per rank, so the result is
+ * cached per player and resolved again when the player joins or quits, when
+ * the settings are reloaded and after the refresh interval, which bounds how
+ * long a permission change takes to apply. A cache hit is a map lookup and a
+ * timestamp comparison.
+ *
+ * @author daoge
+ */
+public class HomeLimitManager {
+
+    public static final String LIMIT_PERMISSION_PREFIX = "essentials.home.limit.";
+    public static final String UNLIMITED_PERMISSION = LIMIT_PERMISSION_PREFIX + "unlimited";
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private final Map<UUID, CachedLimit> limits = new ConcurrentHashMap<>();
+
+    /**
+     * Get the number of homes a player may have.
+     *
+     * @param player the player
+     * @return the limit, {@link #UNLIMITED} if limits are disabled or lifted for the player
+     */
+    public int getLimit(EntityPlayer player) {
+        EssentialsSettings.HomeLimits settings = EssentialsPlugin.getInstance().getSettings().homeLimits();
+        if (!settings.enabled()) {
+            return UNLIMITED;
+        }
+        long now = System.currentTimeMillis();
+        CachedLimit cached = limits.get(player.getUniqueId());
+        if (cached != null && now < cached.expiresAt()) {
+            return cached.limit();
+        }
+        int limit = resolve(settings, player);
+        limits.put(player.getUniqueId(), new CachedLimit(limit, now + settings.refreshIntervalMillis()));
+        return limit;
+    }
+
+    /**
+     * Forget a player's resolved limit, e.g. after their permissions changed.
+     *
+     * @param playerId player uuid
+     */
+    public void invalidate(UUID playerId) {
+        limits.remove(playerId);
+    }
+
+    /**
+     * Forget all resolved limits, typically when the settings change.
+     */
+    public void invalidateAll() {
+        limits.clear();
+    }
+
+    private static int resolve(EssentialsSettings.HomeLimits settings, EntityPlayer player) {
+        if (player.hasPermission(UNLIMITED_PERMISSION).asBoolean()) {
+            return UNLIMITED;
+        }
+        // Ranks are sorted from the highest limit down, the first one the player has wins
+        for (int rank : settings.ranks()) {
+            if (rank <= settings.defaultLimit()) {
+                break;
+            }
+            if (player.hasPermission(LIMIT_PERMISSION_PREFIX + rank).asBoolean()) {
+                return rank;
+            }
+        }
+        return settings.defaultLimit();
+    }
+
+    private record CachedLimit(int limit, long expiresAt) {
+    }
+}
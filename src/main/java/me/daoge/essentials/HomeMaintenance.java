@@ -0,0 +1,196 @@
+package me.daoge.essentials;
+
+import me.daoge.essentials.metrics.Metrics;
+import org.allaymc.api.math.location.Location3dc;
+import org.allaymc.api.server.Server;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Bulk maintenance of every player's homes, e.g. after a world was deleted or renamed.
+ * <p>
+ * An operation runs off the server thread in two phases. The scan phase reads
+ * the homes of all players with stored homes in batches, reports progress after
+ * each batch and plans the changes without writing anything; purging a region
+ * looks the homes up in the home index instead. The commit phase
+ * then applies all planned changes and persists them in one go; a change is
+ * skipped if its home was modified since it was planned. Only one operation
+ * runs at a time.
+ *
+ * @author daoge
+ */
+public class HomeMaintenance {
+
+    private static final int BATCH_SIZE = 500;
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private final HomeManager homeManager;
+    private final LastSeenTracker lastSeenTracker;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public HomeMaintenance(HomeManager homeManager, LastSeenTracker lastSeenTracker) {
+        this.homeManager = homeManager;
+        this.lastSeenTracker = lastSeenTracker;
+    }
+
+    /**
+     * Remove all homes in a world.
+     *
+     * @param worldName world display name, as stored in the homes
+     * @param progress  receives progress after each batch
+     * @return the result, completed once the changes are persisted
+     */
+    public CompletableFuture<Result> purgeWorld(String worldName, Consumer<Progress> progress) {
+        return run("purge-world", progress, (playerId, homes, changes) -> homes.forEach((key, home) -> {
+            if (home.worldName().equals(worldName)) {
+                changes.put(key, new HomeManager.HomeChange(home, null));
+            }
+        }));
+    }
+
+    /**
+     * Remove all homes of players who have not been online for the given number of days.
+     *
+     * @param days     minimum number of days since the player was last online
+     * @param progress receives progress after each batch
+     * @return the result, completed once the changes are persisted
+     */
+    public CompletableFuture<Result> purgeInactive(int days, Consumer<Progress> progress) {
+        long cutoff = System.currentTimeMillis() - days * MILLIS_PER_DAY;
+        Set<UUID> online = Set.copyOf(Server.getInstance().getPlayerManager().getPlayers().keySet());
+        return run("purge-inactive", progress, (playerId, homes, changes) -> {
+            if (online.contains(playerId) || lastSeenTracker.getLastSeen(playerId) >= cutoff) {
+                return;
+            }
+            homes.forEach((key, home) -> changes.put(key, new HomeManager.HomeChange(home, null)));
+        });
+    }
+
+    /**
+     * Point all homes in one world to another world, keeping their coordinates.
+     *
+     * @param fromWorld world display name the homes are in now
+     * @param toWorld   world display name to move them to
+     * @param progress  receives progress after each batch
+     * @return the result, completed once the changes are persisted
+     */
+    public CompletableFuture<Result> moveWorld(String fromWorld, String toWorld, Consumer<Progress> progress) {
+        return run("move-world", progress, (playerId, homes, changes) -> homes.forEach((key, home) -> {
+            if (home.worldName().equals(fromWorld)) {
+                changes.put(key, new HomeManager.HomeChange(home, new LocationRecord(home.name(), toWorld,
+                        home.dimensionId(), home.x(), home.y(), home.z(), home.pitch(), home.yaw())));
+            }
+        }));
+    }
+
+    /**
+     * Remove all homes within a horizontal radius, using the home index instead of a scan.
+     *
+     * @param center   center of the region
+     * @param radius   radius in blocks
+     * @param progress receives progress once the homes are found
+     * @return the result, completed once the changes are persisted
+     */
+    public CompletableFuture<Result> purgeRegion(Location3dc center, double radius, Consumer<Progress> progress) {
+        if (!homeManager.isIndexReady()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("The home index is still being built"));
+        }
+        return start("purge-region", () -> {
+            Map<UUID, Map<String, HomeManager.HomeChange>> plan = new LinkedHashMap<>();
+            List<SpatialIndex.Match<HomeManager.HomeKey>> matches = homeManager.getHomesInRadius(center, radius);
+            matches.forEach(match -> plan.computeIfAbsent(match.key().owner(), owner -> new HashMap<>())
+                    .put(match.key().name(), new HomeManager.HomeChange(match.record(), null)));
+            progress.accept(new Progress(plan.size(), plan.size(), matches.size()));
+            return commit(plan, plan.size(), matches.size());
+        });
+    }
+
+    /**
+     * @return whether an operation is running
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    private CompletableFuture<Result> run(String name, Consumer<Progress> progress, Planner planner) {
+        return start(name, () -> {
+            // Scan: plan the changes of every player without writing anything
+            List<UUID> players = homeManager.getStoredPlayers();
+            Map<UUID, Map<String, HomeManager.HomeChange>> plan = new LinkedHashMap<>();
+            int planned = 0;
+            for (int i = 0; i < players.size(); i++) {
+                UUID playerId = players.get(i);
+                Map<String, HomeManager.HomeChange> changes = new HashMap<>();
+                try {
+                    planner.plan(playerId, homeManager.readHomes(playerId), changes);
+                } catch (Exception e) {
+                    // Leave unreadable stores alone rather than aborting the whole operation
+                    EssentialsPlugin.getInstance().getPluginLogger().error("Failed to read homes of {}", playerId, e);
+                }
+                if (!changes.isEmpty()) {
+                    plan.put(playerId, changes);
+                    planned += changes.size();
+                }
+                if ((i + 1) % BATCH_SIZE == 0 || i + 1 == players.size()) {
+                    progress.accept(new Progress(i + 1, players.size(), planned));
+                }
+            }
+
+            return commit(plan, players.size(), planned);
+        });
+    }
+
+    private CompletableFuture<Result> start(String name, Supplier<Result> operation) {
+        if (!homeManager.isLoaded()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Homes are still loading"));
+        }
+        if (!running.compareAndSet(false, true)) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Another maintenance operation is running"));
+        }
+        return EssentialsIO.supply(() -> Metrics.time("maintenance." + name, operation))
+                .whenComplete((result, error) -> running.set(false));
+    }
+
+    /**
+     * Apply and persist all planned changes at once.
+     */
+    private Result commit(Map<UUID, Map<String, HomeManager.HomeChange>> plan, int scanned, int planned) {
+        int applied = 0;
+        for (Map.Entry<UUID, Map<String, HomeManager.HomeChange>> entry : plan.entrySet()) {
+            applied += homeManager.applyChanges(entry.getKey(), entry.getValue());
+        }
+        homeManager.flush();
+        return new Result(scanned, plan.size(), applied, planned - applied);
+    }
+
+    @FunctionalInterface
+    private interface Planner {
+        /**
+         * @param playerId player uuid
+         * @param homes    the player's homes by normalized name
+         * @param changes  receives the changes to make, by normalized name
+         */
+        void plan(UUID playerId, Map<String, LocationRecord> homes, Map<String, HomeManager.HomeChange> changes);
+    }
+
+    /**
+     * @param scannedPlayers players scanned so far
+     * @param totalPlayers   players with stored homes
+     * @param plannedHomes   homes to change so far
+     */
+    public record Progress(int scannedPlayers, int totalPlayers, int plannedHomes) {
+    }
+
+    /**
+     * @param scannedPlayers  players scanned
+     * @param affectedPlayers players with at least one planned change
+     * @param changedHomes    homes changed
+     * @param skippedHomes    planned changes skipped because the home was modified meanwhile
+     */
+    public record Result(int scannedPlayers, int affectedPlayers, int changedHomes, int skippedHomes) {
+    }
+}
@@ -1,54 +1,295 @@
 package me.daoge.essentials;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
+import lombok.extern.slf4j.Slf4j;
+import me.daoge.essentials.metrics.Metrics;
+import me.daoge.essentials.storage.LocationStore;
+import me.daoge.essentials.storage.StorageBackend;
 import org.allaymc.api.math.location.Location3dc;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
 
 /**
- * Manage player-specific home locations stored under the plugin's data folder.
+ * Manage player-specific home locations.
+ * <p>
+ * Each player's homes live in their own {@link LocationStore} namespace
+ * ({@code homes/<uuid>}). Stores are opened in the background when the player
+ * joins, served from memory while they are online and evicted a grace period
+ * after they disconnect, so memory scales with online players rather than with
+ * everyone who ever set a home. The per-player methods never load on the
+ * calling thread and fail for players whose homes are not in memory; check
+ * {@link #isLoaded(UUID)} first.
+ * <p>
+ * Mutations only stage a change in the store; a {@link WriteBehindSaver} flushes
+ * changed stores in the background so that command execution never waits for disk I/O.
+ * <p>
+ * Every player's homes are published as an immutable snapshot that includes the
+ * sorted home list. Mutations copy the snapshot and replace it, so the frequent
+ * reads from commands and forms neither lock nor allocate.
+ * <p>
+ * Homes written by older versions are migrated in the background when the
+ * plugin starts, so that enabling it does not wait for large files; until that
+ * is done {@link #isLoaded()} is false and the home commands ask to wait.
+ * <p>
+ * The homes of all players, including offline ones, are also kept in a
+ * {@link HomeIndex} for region queries. The index is built in the background
+ * after the migration and then maintained alongside the stores. As it is the
+ * only in-memory table of every home, it uses the columnar
+ * {@link PackedHomeIndex} unless configured otherwise.
+ * <p>
+ * When the storage is shared with other servers, homes they change are
+ * reloaded as the backend reports them.
  */
-public class HomeManager {
+@Slf4j
+public class HomeManager implements AutoCloseable {
 
-    private static final String HOME_FILE_NAME = "home.json";
-    private static final Type HOME_DATA_TYPE = new TypeToken<Map<String, List<LocationRecord>>>() {
+    private static final String LEGACY_HOME_FILE_NAME = "home.json";
+    private static final String HOME_NAMESPACE = "homes";
+    private static final String LEGACY_SHARD_EXTENSION = ".json";
+    private static final int IMPORT_BATCH_SIZE = 256;
+    private static final Type LEGACY_HOME_LIST_TYPE = new TypeToken<List<LocationRecord>>() {
     }.getType();
 
-    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
-    private final Path homeFile;
-    private final Map<UUID, Map<String, LocationRecord>> homes = new ConcurrentHashMap<>();
+    private final Gson gson = new Gson();
+    private final StorageBackend backend;
+    private final long evictDelayMillis;
+    private final Map<UUID, PlayerHomes> homes = new ConcurrentHashMap<>();
+    private final Set<UUID> dirtyPlayers = ConcurrentHashMap.newKeySet();
+    // Players whose homes are being loaded in the background
+    private final Set<UUID> loading = ConcurrentHashMap.newKeySet();
+    // Disconnected players whose homes will be evicted: uuid -> eviction deadline
+    private final Map<UUID, Long> pendingEvictions = new ConcurrentHashMap<>();
+    private final WriteBehindSaver saver;
+    private final HomeIndex index;
+    // Migration and index build, run in the background
+    private final CompletableFuture<Void> startup;
+    private volatile boolean closing;
+    private volatile boolean indexReady;
+    private volatile boolean loaded;
 
-    public HomeManager(Path dataFolder) {
-        this.homeFile = dataFolder.resolve(HOME_FILE_NAME);
-        load();
+    /**
+     * @param dataFolder         plugin data folder
+     * @param backend            storage backend for the per-player stores
+     * @param saveIntervalMillis delay between background flushes in milliseconds
+     * @param evictDelayMillis   how long a disconnected player's homes stay in memory
+     * @param packedIndex        whether to keep the index of all homes in the columnar layout
+     */
+    public HomeManager(Path dataFolder, StorageBackend backend, long saveIntervalMillis, long evictDelayMillis, boolean packedIndex) {
+        this.backend = backend;
+        this.evictDelayMillis = evictDelayMillis;
+        this.index = HomeIndex.create(packedIndex);
+        this.saver = new WriteBehindSaver("home", saveIntervalMillis, this::flushDirty);
+        backend.addChangeListener(this::reloadChanged);
+        this.startup = EssentialsIO.run(() -> {
+            try {
+                migrateLegacyFiles(dataFolder);
+            } finally {
+                loaded = true;
+            }
+            buildIndex();
+        });
+    }
+
+    /**
+     * Load a player's homes in the background, typically when they join.
+     *
+     * @param playerId player uuid
+     */
+    public void loadPlayer(UUID playerId) {
+        pendingEvictions.remove(playerId);
+        if (!homes.containsKey(playerId) && loading.add(playerId)) {
+            EssentialsIO.run(() -> {
+                try {
+                    homes.computeIfAbsent(playerId, this::openPlayer);
+                } finally {
+                    loading.remove(playerId);
+                }
+            });
+        }
+    }
+
+    /**
+     * Check whether a player's homes are in memory, and start loading them in
+     * the background if they are not, e.g. for players who were online before
+     * the plugin was enabled.
+     *
+     * @param playerId player uuid
+     * @return whether the per-player methods can be used for the player
+     */
+    public boolean isLoaded(UUID playerId) {
+        if (homes.containsKey(playerId)) {
+            return true;
+        }
+        loadPlayer(playerId);
+        return false;
+    }
+
+    /**
+     * Schedule a player's homes for eviction after the grace period, typically when they disconnect.
+     *
+     * @param playerId player uuid
+     */
+    public void unloadPlayer(UUID playerId) {
+        pendingEvictions.put(playerId, System.currentTimeMillis() + evictDelayMillis);
+        // Make sure the writer wakes up to perform the eviction
+        saver.markDirty();
     }
 
     /**
      * @return immutable sorted list of a player's homes (case-insensitive by name)
      */
     public List<LocationRecord> getSortedHomes(UUID playerId) {
-        Map<String, LocationRecord> map = homes.get(playerId);
-        if (map == null || map.isEmpty()) {
-            return List.of();
-        }
-        return map.values().stream()
-                .sorted(Comparator.comparing(LocationRecord::name, String.CASE_INSENSITIVE_ORDER))
-                .toList();
+        return resident(playerId).snapshot.sorted();
+    }
+
+    /**
+     * @return number of homes of a player
+     */
+    public int getHomeCount(UUID playerId) {
+        return resident(playerId).snapshot.homes().size();
     }
 
     public Optional<LocationRecord> getHome(UUID playerId, String name) {
-        Map<String, LocationRecord> map = homes.get(playerId);
-        if (map == null) {
-            return Optional.empty();
+        return Optional.ofNullable(resident(playerId).snapshot.homes().get(normalize(name)));
+    }
+
+    /**
+     * Find the player's home closest to a location, in the same dimension.
+     *
+     * @param playerId player uuid
+     * @param location query point
+     * @return the closest home and its horizontal distance, if the player has a home in that dimension
+     */
+    public Optional<SpatialIndex.Match<HomeKey>> getNearestHome(UUID playerId, Location3dc location) {
+        // A player has few homes, scanning them beats a lookup in the index of all homes
+        return SpatialIndex.nearest(resident(playerId).snapshot.homes(), location)
+                .map(match -> new SpatialIndex.Match<>(new HomeKey(playerId, match.key()), match.record(), match.distance()));
+    }
+
+    /**
+     * Find the homes of all players, including offline ones, within a horizontal radius.
+     *
+     * @param location query point
+     * @param radius   radius in blocks
+     * @return the homes, closest first
+     * @throws IllegalStateException if the index is still being built
+     */
+    public List<SpatialIndex.Match<HomeKey>> getHomesInRadius(Location3dc location, double radius) {
+        if (!indexReady) {
+            throw new IllegalStateException("The home index is still being built");
         }
-        return Optional.ofNullable(map.get(normalize(name)));
+        List<SpatialIndex.Match<HomeKey>> result = new ArrayList<>();
+        if (location.dimension() == null) {
+            return result;
+        }
+        index.withinRadius(LocationRecord.from("", location), radius, result::add);
+        result.sort(Comparator.comparingDouble(SpatialIndex.Match::distance));
+        return result;
+    }
+
+    /**
+     * @return whether homes written by older versions have been migrated, so that every home can be read
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return whether the index of all homes has been built
+     */
+    public boolean isIndexReady() {
+        return indexReady;
+    }
+
+    /**
+     * @return uuids of all players with stored homes, including offline ones
+     */
+    public List<UUID> getStoredPlayers() {
+        List<UUID> players = new ArrayList<>();
+        for (String name : backend.list(HOME_NAMESPACE)) {
+            try {
+                players.add(UUID.fromString(name));
+            } catch (IllegalArgumentException ignored) {
+                // Not a player store
+            }
+        }
+        return players;
+    }
+
+    /**
+     * Read a player's homes without keeping an offline player's homes in memory.
+     *
+     * @param playerId player uuid
+     * @return homes keyed by normalized name
+     */
+    public Map<String, LocationRecord> readHomes(UUID playerId) {
+        PlayerHomes resident = homes.get(playerId);
+        if (resident != null) {
+            return resident.snapshot.homes();
+        }
+        try (LocationStore store = backend.open(namespace(playerId))) {
+            return store.load();
+        }
+    }
+
+    /**
+     * Apply changes planned from {@link #readHomes} to a player's homes. A change
+     * is skipped if the home no longer matches the record it was planned from,
+     * e.g. because the player changed it meanwhile. Changes of offline players
+     * are written right away, those of online players on the next flush.
+     *
+     * @param playerId player uuid
+     * @param changes  changes by normalized home name
+     * @return number of changes applied
+     */
+    public int applyChanges(UUID playerId, Map<String, HomeChange> changes) {
+        int[] applied = new int[1];
+        // Computing on the entry keeps the player from being loaded or evicted meanwhile
+        homes.compute(playerId, (id, resident) -> {
+            if (resident != null) {
+                applied[0] = resident.apply(changes);
+                if (applied[0] > 0) {
+                    markDirty(id);
+                }
+                return resident;
+            }
+            try (LocationStore store = backend.open(namespace(id))) {
+                Map<String, LocationRecord> current = store.load();
+                changes.forEach((key, change) -> {
+                    if (change.matches(current.get(key))) {
+                        HomeKey homeKey = new HomeKey(id, key);
+                        index.remove(homeKey, change.expected());
+                        if (change.replacement() != null) {
+                            store.put(key, change.replacement());
+                            index.put(homeKey, change.replacement());
+                        } else {
+                            store.remove(key);
+                        }
+                        applied[0]++;
+                    }
+                });
+            }
+            return null;
+        });
+        return applied[0];
+    }
+
+    /**
+     * Write the pending changes of online players now rather than on the next
+     * background flush.
+     */
+    public void flush() {
+        saver.flushNow();
     }
 
     /**
@@ -60,16 +301,27 @@ public class HomeManager {
      * @return true if added successfully, false if name exists or location invalid
      */
     public boolean addHome(UUID playerId, String name, Location3dc location) {
+        return addHome(playerId, name, location, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Add a home for the player unless they already have as many homes as they may.
+     *
+     * @param playerId player uuid
+     * @param name     home name
+     * @param location location snapshot
+     * @param limit    maximum number of homes of the player
+     * @return true if added successfully, false if name exists, the limit is reached or location invalid
+     */
+    public boolean addHome(UUID playerId, String name, Location3dc location, int limit) {
         if (location == null || location.dimension() == null) {
             return false;
         }
-        Map<String, LocationRecord> map = homes.computeIfAbsent(playerId, id -> new ConcurrentHashMap<>());
-        String key = normalize(name);
-        if (map.containsKey(key)) {
+        LocationRecord record = LocationRecord.from(name, location);
+        if (!resident(playerId).add(normalize(name), record, limit)) {
             return false;
         }
-        map.put(key, LocationRecord.from(name, location));
-        save();
+        markDirty(playerId);
         return true;
     }
 
@@ -81,69 +333,435 @@ public class HomeManager {
      * @return true if removed
      */
     public boolean removeHome(UUID playerId, String name) {
-        Map<String, LocationRecord> map = homes.get(playerId);
-        if (map == null) {
-            return false;
-        }
-        LocationRecord removed = map.remove(normalize(name));
-        if (removed != null) {
-            save();
+        if (resident(playerId).remove(normalize(name))) {
+            markDirty(playerId);
             return true;
         }
         return false;
     }
 
-    private void load() {
+    /**
+     * Stop the index build, flush pending changes synchronously and stop the background writer.
+     */
+    @Override
+    public void close() {
+        closing = true;
+        // Wait for the startup task, it writes migrated homes into the stores
+        startup.exceptionally(error -> null).join();
+        saver.close();
+        homes.values().forEach(playerHomes -> playerHomes.store.close());
+    }
+
+    private void markDirty(UUID playerId) {
+        dirtyPlayers.add(playerId);
+        saver.markDirty();
+    }
+
+    private PlayerHomes resident(UUID playerId) {
+        PlayerHomes playerHomes = homes.get(playerId);
+        if (playerHomes == null) {
+            throw new IllegalStateException("Homes of " + playerId + " are not loaded");
+        }
+        return playerHomes;
+    }
+
+    private PlayerHomes openPlayer(UUID playerId) {
+        LocationStore store = backend.open(namespace(playerId));
+        Map<String, LocationRecord> map = Map.of();
         try {
-            Files.createDirectories(homeFile.getParent());
-            if (!Files.exists(homeFile)) {
-                save();
+            map = Metrics.time("load.home", store::load);
+        } catch (Exception e) {
+            log.error("Failed to load homes of {}", playerId, e);
+        }
+        return new PlayerHomes(playerId, store, Snapshot.of(map));
+    }
+
+    private void buildIndex() {
+        long start = System.nanoTime();
+        for (String name : backend.list(HOME_NAMESPACE)) {
+            if (closing) {
                 return;
             }
-            String content = Files.readString(homeFile);
-            if (content.isBlank()) {
+            UUID playerId;
+            try {
+                playerId = UUID.fromString(name);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            // Computing on the entry keeps the player from being loaded or evicted meanwhile
+            homes.compute(playerId, (id, resident) -> {
+                if (resident != null) {
+                    resident.index();
+                } else {
+                    try (LocationStore store = backend.open(namespace(id))) {
+                        store.load().forEach((key, home) -> index.put(new HomeKey(id, key), home));
+                    } catch (Exception e) {
+                        log.error("Failed to index homes of {}", id, e);
+                    }
+                }
+                return resident;
+            });
+        }
+        indexReady = true;
+        log.info("Indexed {} homes in {} ms",
+                index.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Reload the homes that another server sharing the storage changed. Online
+     * players' homes are replaced, keeping their changes that are not written
+     * yet; offline players only need their entries in the index refreshed.
+     */
+    private void reloadChanged(Set<String> namespaces) {
+        String prefix = HOME_NAMESPACE + "/";
+        Set<UUID> players = new HashSet<>();
+        for (String namespace : namespaces) {
+            if (namespace.startsWith(prefix)) {
+                try {
+                    players.add(UUID.fromString(namespace.substring(prefix.length())));
+                } catch (IllegalArgumentException ignored) {
+                    // Not a player store
+                }
+            }
+        }
+        if (players.isEmpty()) {
+            return;
+        }
+        // The old homes of offline players are unknown, so drop all their entries in one scan
+        Set<UUID> offline = new HashSet<>(players);
+        offline.removeAll(homes.keySet());
+        index.removeOwners(offline);
+        for (UUID playerId : players) {
+            homes.compute(playerId, (id, resident) -> {
+                if (resident != null) {
+                    resident.reload();
+                } else {
+                    if (!offline.contains(id)) {
+                        // Evicted since the scan above
+                        index.removeOwners(Set.of(id));
+                    }
+                    try (LocationStore store = backend.open(namespace(id))) {
+                        store.load().forEach((key, home) -> index.put(new HomeKey(id, key), home));
+                    } catch (Exception e) {
+                        log.error("Failed to reload homes of {}", id, e);
+                    }
+                }
+                return resident;
+            });
+        }
+    }
+
+    private void flushDirty() {
+        for (Iterator<UUID> iterator = dirtyPlayers.iterator(); iterator.hasNext(); ) {
+            UUID playerId = iterator.next();
+            iterator.remove();
+            PlayerHomes playerHomes = homes.get(playerId);
+            if (playerHomes != null) {
+                try {
+                    playerHomes.store.flush();
+                } catch (RuntimeException e) {
+                    dirtyPlayers.add(playerId);
+                    throw e;
+                }
+            }
+        }
+        evictExpired();
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        boolean remaining = false;
+        for (Map.Entry<UUID, Long> entry : pendingEvictions.entrySet()) {
+            UUID playerId = entry.getKey();
+            if (entry.getValue() > now || dirtyPlayers.contains(playerId)) {
+                remaining = true;
+                continue;
+            }
+            if (pendingEvictions.remove(playerId, entry.getValue())) {
+                PlayerHomes evicted = homes.remove(playerId);
+                if (evicted != null) {
+                    evicted.store.close();
+                }
+            }
+        }
+        if (remaining) {
+            saver.markDirty();
+        }
+    }
+
+    /**
+     * Import homes written by older versions: a monolithic home.json, and the
+     * per-player homes/&lt;uuid&gt;.json files.
+     */
+    private void migrateLegacyFiles(Path dataFolder) {
+        Path legacyFile = dataFolder.resolve(LEGACY_HOME_FILE_NAME);
+        try {
+            if (Files.exists(legacyFile)) {
+                importHomes(legacyFile);
+                Files.move(legacyFile, legacyFile.resolveSibling(LEGACY_HOME_FILE_NAME + ".migrated"));
+                log.info("Migrated {} into the home store", LEGACY_HOME_FILE_NAME);
+            }
+
+            Path shardFolder = dataFolder.resolve(HOME_NAMESPACE);
+            if (!Files.isDirectory(shardFolder)) {
                 return;
             }
-            Map<String, List<LocationRecord>> loaded = gson.fromJson(content, HOME_DATA_TYPE);
-            if (loaded != null) {
-                loaded.forEach((uuidStr, list) -> {
+            try (DirectoryStream<Path> shards = Files.newDirectoryStream(shardFolder, "*" + LEGACY_SHARD_EXTENSION)) {
+                for (Path shard : shards) {
+                    String fileName = shard.getFileName().toString();
                     try {
-                        UUID uuid = UUID.fromString(uuidStr);
-                        Map<String, LocationRecord> playerHomes = homes.computeIfAbsent(uuid, id -> new ConcurrentHashMap<>());
-                        if (list != null) {
-                            list.forEach(home -> playerHomes.put(normalize(home.name()), home));
-                        }
+                        UUID uuid = UUID.fromString(fileName.substring(0, fileName.length() - LEGACY_SHARD_EXTENSION.length()));
+                        importHomes(uuid, gson.fromJson(Files.readString(shard), LEGACY_HOME_LIST_TYPE));
+                        Files.delete(shard);
                     } catch (IllegalArgumentException ignored) {
-                        // Skip invalid UUID entries
+                        // Not a home shard
                     }
-                });
+                }
             }
         } catch (Exception e) {
-            EssentialsPlugin.getInstance().getPluginLogger().error("Failed to load homes", e);
+            log.error("Failed to migrate homes", e);
         }
     }
 
-    private void save() {
-        try {
-            Files.createDirectories(homeFile.getParent());
-            Map<String, List<LocationRecord>> serializable = new HashMap<>();
-            homes.forEach((uuid, map) -> serializable.put(uuid.toString(), new ArrayList<>(map.values())));
-
-            String json = gson.toJson(serializable, HOME_DATA_TYPE);
-            Files.writeString(
-                    homeFile,
-                    json,
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING
-            );
-        } catch (Exception e) {
-            EssentialsPlugin.getInstance().getPluginLogger().error("Failed to save homes", e);
+    /**
+     * Visit every stored player's homes, including players who are offline.
+     *
+     * @param consumer receives each player's uuid and homes
+     */
+    public void exportHomes(BiConsumer<UUID, Collection<LocationRecord>> consumer) {
+        for (String name : backend.list(HOME_NAMESPACE)) {
+            UUID playerId;
+            try {
+                playerId = UUID.fromString(name);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            PlayerHomes resident = homes.get(playerId);
+            if (resident != null) {
+                consumer.accept(playerId, resident.snapshot.sorted());
+            } else {
+                try (LocationStore store = backend.open(namespace(playerId))) {
+                    consumer.accept(playerId, store.load().values());
+                }
+            }
+        }
+    }
+
+    /**
+     * Add or overwrite homes from a file in the layout of {@code home.json}.
+     * <p>
+     * The file is streamed rather than read at once, and players are imported
+     * in batches of {@value #IMPORT_BATCH_SIZE}, each spread over the common
+     * {@link ForkJoinPool} since their stores are independent.
+     *
+     * @param file the file
+     * @return number of homes imported
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public int importHomes(Path file) throws IOException {
+        List<Map.Entry<UUID, List<LocationRecord>>> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+        int count = JsonLocationReader.readHomes(file, (playerId, list) -> {
+            batch.add(Map.entry(playerId, list));
+            if (batch.size() == IMPORT_BATCH_SIZE) {
+                importBatch(batch);
+            }
+        });
+        importBatch(batch);
+        return count;
+    }
+
+    private void importBatch(List<Map.Entry<UUID, List<LocationRecord>>> batch) {
+        batch.parallelStream().forEach(entry -> importHomes(entry.getKey(), entry.getValue()));
+        batch.clear();
+    }
+
+    /**
+     * Add or overwrite homes of a player, who may be offline.
+     *
+     * @param playerId player uuid
+     * @param records  homes to import
+     */
+    public void importHomes(UUID playerId, Collection<LocationRecord> records) {
+        if (records == null || records.isEmpty()) {
+            return;
         }
+        // Computing on the entry keeps the player from being loaded before the imported homes are written
+        homes.compute(playerId, (id, resident) -> {
+            if (resident != null) {
+                resident.putAll(records);
+                markDirty(id);
+                return resident;
+            }
+            try (LocationStore store = backend.open(namespace(id))) {
+                Map<String, LocationRecord> existing = store.load();
+                records.forEach(home -> {
+                    String key = normalize(home.name());
+                    HomeKey homeKey = new HomeKey(id, key);
+                    LocationRecord previous = existing.get(key);
+                    if (previous != null) {
+                        index.remove(homeKey, previous);
+                    }
+                    store.put(key, home);
+                    index.put(homeKey, home);
+                });
+            }
+            return null;
+        });
     }
 
-    private String normalize(String name) {
+    private static String namespace(UUID playerId) {
+        return HOME_NAMESPACE + "/" + playerId;
+    }
+
+    private static String normalize(String name) {
         return name.toLowerCase(Locale.ROOT);
     }
-}
 
+    /**
+     * A home in the index of all homes.
+     *
+     * @param owner uuid of the player who owns the home
+     * @param name  normalized home name
+     */
+    public record HomeKey(UUID owner, String name) {
+    }
+
+    /**
+     * A planned change of one home.
+     *
+     * @param expected    the home as it was read when planning
+     * @param replacement the new home, or null to remove it
+     */
+    public record HomeChange(LocationRecord expected, LocationRecord replacement) {
+
+        /**
+         * Compare by name and position only: stores with {@code float-angles}
+         * return rounded angles, so a record taken from the index may differ
+         * from the stored one in its angles alone.
+         */
+        private boolean matches(LocationRecord current) {
+            return current != null
+                   && expected.name().equals(current.name())
+                   && expected.worldName().equals(current.worldName())
+                   && expected.dimensionId() == current.dimensionId()
+                   && expected.x() == current.x()
+                   && expected.y() == current.y()
+                   && expected.z() == current.z();
+        }
+    }
 
+    /**
+     * A resident player's store and the current snapshot of their homes.
+     * Mutations, including the matching index updates, are serialized on the
+     * instance; reads only access the snapshot.
+     */
+    private final class PlayerHomes {
+        private final UUID owner;
+        private final LocationStore store;
+        private volatile Snapshot snapshot;
+
+        private PlayerHomes(UUID owner, LocationStore store, Snapshot snapshot) {
+            this.owner = owner;
+            this.store = store;
+            this.snapshot = snapshot;
+        }
+
+        private synchronized void index() {
+            snapshot.homes().forEach((key, home) -> index.put(new HomeKey(owner, key), home));
+        }
+
+        /**
+         * Replace the homes with the stored ones, removing the old entries from the index first.
+         */
+        private synchronized void reload() {
+            Map<String, LocationRecord> stored = store.load();
+            snapshot.homes().forEach((key, home) -> index.remove(new HomeKey(owner, key), home));
+            stored.forEach((key, home) -> index.put(new HomeKey(owner, key), home));
+            snapshot = Snapshot.of(stored);
+        }
+
+        private synchronized boolean add(String key, LocationRecord record, int limit) {
+            // The snapshot's size is a field of the immutable map, checked under the same lock as the add
+            if (snapshot.homes().containsKey(key) || snapshot.homes().size() >= limit) {
+                return false;
+            }
+            Map<String, LocationRecord> copy = new HashMap<>(snapshot.homes());
+            copy.put(key, record);
+            store.put(key, record);
+            index.put(new HomeKey(owner, key), record);
+            snapshot = Snapshot.of(copy);
+            return true;
+        }
+
+        private synchronized boolean remove(String key) {
+            if (!snapshot.homes().containsKey(key)) {
+                return false;
+            }
+            Map<String, LocationRecord> copy = new HashMap<>(snapshot.homes());
+            index.remove(new HomeKey(owner, key), copy.remove(key));
+            store.remove(key);
+            snapshot = Snapshot.of(copy);
+            return true;
+        }
+
+        private synchronized int apply(Map<String, HomeChange> changes) {
+            Map<String, LocationRecord> copy = new HashMap<>(snapshot.homes());
+            int applied = 0;
+            for (Map.Entry<String, HomeChange> entry : changes.entrySet()) {
+                String key = entry.getKey();
+                HomeChange change = entry.getValue();
+                if (!change.matches(copy.get(key))) {
+                    continue;
+                }
+                HomeKey homeKey = new HomeKey(owner, key);
+                index.remove(homeKey, change.expected());
+                if (change.replacement() != null) {
+                    copy.put(key, change.replacement());
+                    store.put(key, change.replacement());
+                    index.put(homeKey, change.replacement());
+                } else {
+                    copy.remove(key);
+                    store.remove(key);
+                }
+                applied++;
+            }
+            if (applied > 0) {
+                snapshot = Snapshot.of(copy);
+            }
+            return applied;
+        }
+
+        private synchronized void putAll(Collection<LocationRecord> records) {
+            Map<String, LocationRecord> copy = new HashMap<>(snapshot.homes());
+            records.forEach(home -> {
+                String key = normalize(home.name());
+                HomeKey homeKey = new HomeKey(owner, key);
+                LocationRecord previous = copy.put(key, home);
+                if (previous != null) {
+                    index.remove(homeKey, previous);
+                }
+                store.put(key, home);
+                index.put(homeKey, home);
+            });
+            snapshot = Snapshot.of(copy);
+        }
+    }
+
+    /**
+     * Immutable view of a player's homes.
+     *
+     * @param homes  homes keyed by normalized name
+     * @param sorted homes sorted by name (case-insensitive)
+     */
+    private record Snapshot(Map<String, LocationRecord> homes, List<LocationRecord> sorted) {
+        private static Snapshot of(Map<String, LocationRecord> homes) {
+            if (homes.isEmpty()) {
+                return new Snapshot(Map.of(), List.of());
+            }
+            List<LocationRecord> sorted = homes.values().stream()
+                    .sorted(Comparator.comparing(LocationRecord::name, String.CASE_INSENSITIVE_ORDER))
+                    .toList();
+            return new Snapshot(Map.copyOf(homes), sorted);
+        }
+    }
+}
@@ -1,62 +1,113 @@
 package me.daoge.essentials;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import lombok.extern.slf4j.Slf4j;
+import me.daoge.essentials.metrics.Metrics;
+import me.daoge.essentials.storage.LocationStore;
+import me.daoge.essentials.storage.StorageBackend;
+import org.allaymc.api.math.location.Location3dc;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
 @Slf4j
-public class HubManager {
-    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
-    private final Path hubFile;
-    private LocationRecord hubLocation;
-
-    public HubManager(Path dataFolder) {
-        this.hubFile = dataFolder.resolve("hub.json");
-        load();
+public class HubManager implements AutoCloseable {
+    private static final String LEGACY_HUB_FILE_NAME = "hub.json";
+    private static final String HUB_NAMESPACE = "hub";
+    private static final String HUB_KEY = "hub";
+
+    private final Gson gson = new Gson();
+    private final LocationStore store;
+    private final WriteBehindSaver saver;
+    private final boolean prebuiltLocations;
+    private volatile LocationRecord hubLocation;
+    private volatile PrebuiltLocation prebuiltHub;
+
+    public HubManager(Path dataFolder, StorageBackend backend, long saveIntervalMillis, boolean prebuiltLocations) {
+        this.prebuiltLocations = prebuiltLocations;
+        this.store = backend.open(HUB_NAMESPACE);
+        load(dataFolder.resolve(LEGACY_HUB_FILE_NAME));
+        this.saver = new WriteBehindSaver(HUB_NAMESPACE, saveIntervalMillis, store::flush);
+        // Pick up a hub set on another server sharing the storage
+        backend.addChangeListener(namespaces -> {
+            if (namespaces.contains(HUB_NAMESPACE)) {
+                LocationRecord hub = store.load().get(HUB_KEY);
+                if (hub != null && !hub.equals(hubLocation)) {
+                    this.hubLocation = hub;
+                    this.prebuiltHub = prebuiltLocations ? new PrebuiltLocation(hub) : null;
+                }
+            }
+        });
     }
 
     public LocationRecord getHub() {
         return hubLocation;
     }
 
+    /**
+     * Resolve the hub into a location. When pre-built locations are enabled the
+     * same shared instance is returned until a world is loaded or unloaded.
+     *
+     * @return the hub location, or null if unset or its world does not exist
+     */
+    public Location3dc getHubLocation() {
+        PrebuiltLocation prebuilt = prebuiltHub;
+        if (prebuilt != null) {
+            return prebuilt.get();
+        }
+        LocationRecord hub = hubLocation;
+        return hub == null ? null : hub.toLocation();
+    }
+
     public void setHub(LocationRecord location) {
         this.hubLocation = location;
-        save();
+        this.prebuiltHub = prebuiltLocations ? new PrebuiltLocation(location) : null;
+        store.put(HUB_KEY, location);
+        saver.markDirty();
+        log.info("Set hub location: {}", location);
     }
 
     public boolean hasHub() {
         return hubLocation != null;
     }
 
-    private void load() {
-        if (!Files.exists(hubFile)) {
-            log.info("Hub file not found, creating new one");
-            hubLocation = null;
-            return;
-        }
+    @Override
+    public void close() {
+        saver.close();
+        store.close();
+    }
 
+    private void load(Path legacyFile) {
         try {
-            String json = Files.readString(hubFile);
-            hubLocation = gson.fromJson(json, LocationRecord.class);
-            log.info("Loaded hub location: {}", hubLocation);
-        } catch (IOException e) {
+            hubLocation = Metrics.time("load.hub", store::load).get(HUB_KEY);
+        } catch (Exception e) {
             log.error("Failed to load hub location", e);
             hubLocation = null;
         }
-    }
 
-    private void save() {
-        try {
-            Files.createDirectories(hubFile.getParent());
-            String json = gson.toJson(hubLocation);
-            Files.writeString(hubFile, json);
-            log.info("Saved hub location: {}", hubLocation);
-        } catch (IOException e) {
-            log.error("Failed to save hub location", e);
+        if (hubLocation == null && Files.exists(legacyFile)) {
+            // Import the hub.json written by older versions
+            try {
+                hubLocation = gson.fromJson(Files.readString(legacyFile), LocationRecord.class);
+                if (hubLocation != null) {
+                    store.put(HUB_KEY, hubLocation);
+                    store.flush();
+                }
+                Files.move(legacyFile, legacyFile.resolveSibling(LEGACY_HUB_FILE_NAME + ".migrated"));
+            } catch (IOException e) {
+                log.error("Failed to migrate hub location", e);
+            }
+        }
+
+        if (prebuiltLocations && hubLocation != null) {
+            prebuiltHub = new PrebuiltLocation(hubLocation);
+        }
+
+        if (hubLocation == null) {
+            log.info("Hub location has not been set");
+        } else {
+            log.info("Loaded hub location: {}", hubLocation);
         }
     }
 }
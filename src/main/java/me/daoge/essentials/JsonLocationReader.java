@@ -0,0 +1,133 @@
+package me.daoge.essentials;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Streaming reader for the JSON layout of {@code home.json} and {@code warp.json}.
+ * <p>
+ * Files are parsed token by token from a buffered reader and every player's
+ * homes or every warp is handed out as soon as it is read, so memory use does
+ * not grow with the file and no intermediate map of the whole file is built.
+ *
+ * @author daoge
+ */
+public final class JsonLocationReader {
+
+    private static final Gson GSON = new Gson();
+    private static final TypeAdapter<LocationRecord> RECORD_ADAPTER = GSON.getAdapter(LocationRecord.class);
+
+    private JsonLocationReader() {
+    }
+
+    /**
+     * Read a file mapping player uuids to lists of homes. Entries whose key is
+     * not a uuid are skipped, as are null homes.
+     *
+     * @param file     the file
+     * @param consumer receives each player's uuid and homes, in file order
+     * @return number of homes read
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static int readHomes(Path file, BiConsumer<UUID, List<LocationRecord>> consumer) throws IOException {
+        int count = 0;
+        try (JsonReader reader = open(file)) {
+            if (isEmpty(reader) || skipNull(reader)) {
+                return 0;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                UUID playerId;
+                try {
+                    playerId = UUID.fromString(reader.nextName());
+                } catch (IllegalArgumentException e) {
+                    // Skip invalid UUID entries
+                    reader.skipValue();
+                    continue;
+                }
+                List<LocationRecord> homes = new ArrayList<>();
+                readArray(reader, homes::add);
+                consumer.accept(playerId, homes);
+                count += homes.size();
+            }
+            reader.endObject();
+        }
+        return count;
+    }
+
+    /**
+     * Read a file holding a list of warps. Null entries are skipped.
+     *
+     * @param file     the file
+     * @param consumer receives each warp, in file order
+     * @return number of warps read
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static int readWarps(Path file, Consumer<LocationRecord> consumer) throws IOException {
+        int[] count = new int[1];
+        try (JsonReader reader = open(file)) {
+            if (isEmpty(reader)) {
+                return 0;
+            }
+            readArray(reader, warp -> {
+                consumer.accept(warp);
+                count[0]++;
+            });
+        }
+        return count[0];
+    }
+
+    private static JsonReader open(Path file) throws IOException {
+        Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        JsonReader jsonReader = new JsonReader(reader);
+        jsonReader.setLenient(true);
+        return jsonReader;
+    }
+
+    private static void readArray(JsonReader reader, Consumer<LocationRecord> consumer) throws IOException {
+        if (skipNull(reader)) {
+            return;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            LocationRecord record = RECORD_ADAPTER.read(reader);
+            if (record != null) {
+                consumer.accept(record);
+            }
+        }
+        reader.endArray();
+    }
+
+    /**
+     * @return whether the document is blank, which older versions treated like an empty file
+     */
+    private static boolean isEmpty(JsonReader reader) throws IOException {
+        try {
+            return reader.peek() == JsonToken.END_DOCUMENT;
+        } catch (EOFException e) {
+            return true;
+        }
+    }
+
+    private static boolean skipNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,106 @@
+package me.daoge.essentials;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Converts the binary stores to and from human-readable JSON files.
+ * <p>
+ * The files use the same layout as the {@code home.json}, {@code warp.json} and
+ * {@code hub.json} files of older versions, so they can be edited by hand.
+ *
+ * @author daoge
+ */
+public class JsonTransfer {
+
+    public static final String HOME_FILE_NAME = "home.json";
+    public static final String WARP_FILE_NAME = "warp.json";
+    public static final String HUB_FILE_NAME = "hub.json";
+    public static final String EXPORT_FOLDER_NAME = "export";
+    public static final String IMPORT_FOLDER_NAME = "import";
+
+    private static final Type HOME_DATA_TYPE = new TypeToken<Map<String, List<LocationRecord>>>() {
+    }.getType();
+    private static final Type WARP_LIST_TYPE = new TypeToken<List<LocationRecord>>() {
+    }.getType();
+
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private final WarpManager warpManager;
+    private final HomeManager homeManager;
+    private final HubManager hubManager;
+
+    public JsonTransfer(WarpManager warpManager, HomeManager homeManager, HubManager hubManager) {
+        this.warpManager = warpManager;
+        this.homeManager = homeManager;
+        this.hubManager = hubManager;
+    }
+
+    /**
+     * Write all homes, warps and the hub as JSON files into the folder.
+     *
+     * @param folder target folder
+     * @return number of locations exported
+     * @throws IOException if writing fails
+     */
+    public int exportTo(Path folder) throws IOException {
+        Files.createDirectories(folder);
+        int count = 0;
+
+        Map<String, List<LocationRecord>> homes = new TreeMap<>();
+        homeManager.exportHomes((uuid, list) -> homes.put(uuid.toString(), new ArrayList<>(list)));
+        AtomicFiles.writeString(folder.resolve(HOME_FILE_NAME), gson.toJson(homes, HOME_DATA_TYPE));
+        for (List<LocationRecord> list : homes.values()) {
+            count += list.size();
+        }
+
+        List<LocationRecord> warps = new ArrayList<>(warpManager.getWarps());
+        AtomicFiles.writeString(folder.resolve(WARP_FILE_NAME), gson.toJson(warps, WARP_LIST_TYPE));
+        count += warps.size();
+
+        if (hubManager.hasHub()) {
+            AtomicFiles.writeString(folder.resolve(HUB_FILE_NAME), gson.toJson(hubManager.getHub()));
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Read the JSON files from the folder and merge them into the stores.
+     * Missing files are skipped; existing entries with the same name are overwritten.
+     * Homes and warps are streamed, so large files are not read into memory at once.
+     *
+     * @param folder source folder
+     * @return number of locations imported
+     * @throws IOException if reading fails
+     */
+    public int importFrom(Path folder) throws IOException {
+        int count = 0;
+
+        Path homeFile = folder.resolve(HOME_FILE_NAME);
+        if (Files.exists(homeFile)) {
+            count += homeManager.importHomes(homeFile);
+        }
+
+        Path warpFile = folder.resolve(WARP_FILE_NAME);
+        if (Files.exists(warpFile)) {
+            count += warpManager.importWarps(warpFile, true).read();
+        }
+
+        Path hubFile = folder.resolve(HUB_FILE_NAME);
+        if (Files.exists(hubFile)) {
+            LocationRecord hub = gson.fromJson(Files.readString(hubFile), LocationRecord.class);
+            if (hub != null) {
+                hubManager.setHub(hub);
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,111 @@
+package me.daoge.essentials;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers when each player was last online, for purging inactive players.
+ * <p>
+ * Players are marked seen when they join and when they disconnect. The times
+ * are kept in memory and written to {@code last-seen.dat} by a
+ * {@link WriteBehindSaver}; the file stores 24 bytes per player. Players who
+ * have not been seen since tracking started count as last seen at that time,
+ * so that they are not purged before they had a chance to join.
+ *
+ * @author daoge
+ */
+public class LastSeenTracker implements AutoCloseable {
+
+    private static final String FILE_NAME = "last-seen.dat";
+    private static final int FORMAT_VERSION = 1;
+
+    private final Path file;
+    private final Map<UUID, Long> lastSeen = new ConcurrentHashMap<>();
+    private final WriteBehindSaver saver;
+    private long trackingSince;
+
+    /**
+     * @param dataFolder         plugin data folder
+     * @param saveIntervalMillis delay between background flushes in milliseconds
+     */
+    public LastSeenTracker(Path dataFolder, long saveIntervalMillis) {
+        this.file = dataFolder.resolve(FILE_NAME);
+        load();
+        this.saver = new WriteBehindSaver("last-seen", saveIntervalMillis, this::flush);
+        if (!Files.exists(file)) {
+            saver.markDirty();
+        }
+    }
+
+    /**
+     * Record that the player is online now.
+     *
+     * @param playerId player uuid
+     */
+    public void markSeen(UUID playerId) {
+        lastSeen.put(playerId, System.currentTimeMillis());
+        saver.markDirty();
+    }
+
+    /**
+     * @param playerId player uuid
+     * @return when the player was last online in epoch milliseconds, or when tracking started if never seen
+     */
+    public long getLastSeen(UUID playerId) {
+        return lastSeen.getOrDefault(playerId, trackingSince);
+    }
+
+    /**
+     * Flush pending changes synchronously and stop the background writer.
+     */
+    @Override
+    public void close() {
+        saver.close();
+    }
+
+    private void load() {
+        trackingSince = System.currentTimeMillis();
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported format version " + version);
+            }
+            trackingSince = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                lastSeen.put(new UUID(in.readLong(), in.readLong()), in.readLong());
+            }
+        } catch (IOException e) {
+            EssentialsPlugin.getInstance().getPluginLogger().error("Failed to load {}", FILE_NAME, e);
+        }
+    }
+
+    private void flush() {
+        Map<UUID, Long> copy = Map.copyOf(lastSeen);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + copy.size() * 24);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(trackingSince);
+            out.writeInt(copy.size());
+            for (Map.Entry<UUID, Long> entry : copy.entrySet()) {
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                out.writeLong(entry.getValue());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            AtomicFiles.write(file, bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -2,7 +2,6 @@ package me.daoge.essentials;
 
 import org.allaymc.api.math.location.Location3d;
 import org.allaymc.api.math.location.Location3dc;
-import org.allaymc.api.server.Server;
 import org.allaymc.api.world.Dimension;
 import org.allaymc.api.world.World;
 
@@ -46,12 +45,13 @@ public record LocationRecord(
         );
     }
 
+    /**
+     * Resolve this record into a location, using the {@link LocationResolver} cache.
+     *
+     * @return the location, or null if the world or dimension does not exist
+     */
     public Location3d toLocation() {
-        World world = Server.getInstance().getWorldPool().getWorld(worldName);
-        if (world == null) {
-            return null;
-        }
-        Dimension dimension = world.getDimension(dimensionId);
+        Dimension dimension = LocationResolver.resolve(worldName, dimensionId);
         if (dimension == null) {
             return null;
         }
@@ -0,0 +1,71 @@
+package me.daoge.essentials;
+
+import org.allaymc.api.server.Server;
+import org.allaymc.api.world.Dimension;
+import org.allaymc.api.world.World;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache of resolved dimensions keyed by world name and dimension id.
+ * <p>
+ * Resolving a {@link LocationRecord} otherwise costs a world pool lookup by name
+ * plus a dimension lookup on every teleport. The cache is cleared whenever a
+ * world is loaded or unloaded, and {@link #generation()} lets holders of
+ * pre-built locations notice that.
+ *
+ * @author daoge
+ */
+public final class LocationResolver {
+
+    private static final Map<DimensionKey, Dimension> DIMENSIONS = new ConcurrentHashMap<>();
+    private static final AtomicInteger GENERATION = new AtomicInteger();
+
+    private LocationResolver() {
+    }
+
+    /**
+     * Resolve a dimension, using the cache when possible.
+     *
+     * @param worldName   world name
+     * @param dimensionId dimension id within the world
+     * @return the dimension, or null if the world or dimension does not exist
+     */
+    public static Dimension resolve(String worldName, int dimensionId) {
+        DimensionKey key = new DimensionKey(worldName, dimensionId);
+        Dimension dimension = DIMENSIONS.get(key);
+        if (dimension != null) {
+            return dimension;
+        }
+        World world = Server.getInstance().getWorldPool().getWorld(worldName);
+        if (world == null) {
+            return null;
+        }
+        dimension = world.getDimension(dimensionId);
+        if (dimension != null) {
+            // Missing worlds are not cached so that a later load is picked up
+            DIMENSIONS.put(key, dimension);
+        }
+        return dimension;
+    }
+
+    /**
+     * Drop all cached dimensions, e.g. after a world was loaded or unloaded.
+     */
+    public static void invalidate() {
+        DIMENSIONS.clear();
+        GENERATION.incrementAndGet();
+    }
+
+    /**
+     * @return a counter that changes every time the cache is invalidated
+     */
+    public static int generation() {
+        return GENERATION.get();
+    }
+
+    private record DimensionKey(String worldName, int dimensionId) {
+    }
+}
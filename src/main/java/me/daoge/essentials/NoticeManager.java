@@ -0,0 +1,123 @@
+package me.daoge.essentials;
+
+import org.allaymc.api.form.Forms;
+import org.allaymc.api.form.type.SimpleForm;
+import org.allaymc.api.player.Player;
+import org.allaymc.api.plugin.Plugin;
+import org.allaymc.api.server.Server;
+import org.allaymc.api.utils.config.Config;
+import org.allaymc.api.utils.config.ConfigSection;
+
+import java.util.UUID;
+
+/**
+ * Server notice shown on join and by /notice.
+ * <p>
+ * The title and content are rendered once from the {@link EssentialsSettings}
+ * and cached together with the join settings, so a join only reads a volatile
+ * field. The cache is rebuilt whenever the settings change. Showing the notice on join
+ * is deferred by a configurable number of ticks so that the form does not
+ * compete with the initial chunk sending.
+ *
+ * @author daoge
+ */
+public class NoticeManager {
+
+    private final Plugin plugin;
+    private final Config config;
+    private volatile Notice notice;
+
+    /**
+     * @param plugin   owning plugin, used to schedule the deferred display
+     * @param config   plugin config the notice content is saved to
+     * @param settings initial settings
+     */
+    public NoticeManager(Plugin plugin, Config config, EssentialsSettings settings) {
+        this.plugin = plugin;
+        this.config = config;
+        apply(settings);
+    }
+
+    /**
+     * Rebuild the cached notice from new settings.
+     */
+    public void apply(EssentialsSettings settings) {
+        EssentialsSettings.Notice section = settings.notice();
+        notice = new Notice(section.title(), render(section.content()), settings.features().notice(), section.joinDelayTicks());
+    }
+
+    /**
+     * Update the notice content and save it to the config in the background.
+     *
+     * @param content new content, {@code \n} is shown as a line break
+     */
+    public void setContent(String content) {
+        EssentialsIO.run(EssentialsPlugin.CONFIG_LANE, () -> {
+            ConfigSection section = config.getSection("notice");
+            section.put("content", content);
+            config.set("notice", section);
+            config.save();
+        });
+        EssentialsPlugin.getInstance().updateSettings(settings -> settings.withNotice(settings.notice().withContent(content)));
+    }
+
+    /**
+     * Show the notice to a player who just joined, if enabled.
+     *
+     * @param player the joining player
+     */
+    public void onJoin(Player player) {
+        Notice current = notice;
+        if (!current.showOnJoin()) {
+            return;
+        }
+        if (current.joinDelayTicks() == 0) {
+            show(player);
+            return;
+        }
+        UUID playerId = player.getLoginData().getUuid();
+        Server.getInstance().getScheduler().scheduleDelayed(plugin, () -> {
+            // The player may have left in the meantime
+            if (Server.getInstance().getPlayerManager().getPlayers().get(playerId) == player) {
+                show(player);
+            }
+            return false;
+        }, current.joinDelayTicks());
+    }
+
+    /**
+     * Show the notice form to a player.
+     */
+    public void show(Player player) {
+        Notice current = notice;
+        // Forms keep per-view state, so only the rendered text is shared
+        SimpleForm form = Forms.simple()
+                .title(current.title())
+                .content(current.content())
+                .button("OK")
+                .onClick(button -> {
+                    // Just close the form
+                })
+                .onClose(() -> {
+                    // Form closed
+                });
+
+        player.viewForm(form);
+    }
+
+    private static String render(String content) {
+        // Replace \n with actual newlines for display
+        return content.replace("\\n", "\n");
+    }
+
+    /**
+     * Rendered notice and join settings.
+     *
+     * @param title          form title
+     * @param content        form content with line breaks resolved
+     * @param showOnJoin     whether the notice is shown on join
+     * @param joinDelayTicks ticks to wait after joining before showing the notice
+     */
+    private record Notice(String title, String content, boolean showOnJoin, int joinDelayTicks) {
+    }
+}
@@ -0,0 +1,18 @@
+package me.daoge.essentials;
+
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * {@link HomeIndex} keeping every home as its {@link LocationRecord} and
+ * {@link HomeManager.HomeKey} in a {@link SpatialIndex}.
+ *
+ * @author daoge
+ */
+final class ObjectHomeIndex extends SpatialIndex<HomeManager.HomeKey> implements HomeIndex {
+
+    @Override
+    public void removeOwners(Set<UUID> owners) {
+        removeIf(key -> owners.contains(key.owner()));
+    }
+}
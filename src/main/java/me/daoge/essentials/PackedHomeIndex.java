@@ -0,0 +1,276 @@
+package me.daoge.essentials;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Columnar {@link HomeIndex} that holds no object per home.
+ * <p>
+ * Homes are bucketed into square cells like in {@link SpatialIndex}, but a cell
+ * stores its homes in parallel primitive arrays: owner id, name id and five
+ * doubles (x, y, z, pitch, yaw). The world and dimension are implied by the grid
+ * the cell belongs to, owners are interned into a table of uuids and names into
+ * a shared string pool, so a home costs about 48 bytes instead of a record, two
+ * strings, a key and a hash map node. Records and keys are only created for the
+ * homes returned by a query. Cells are {@value #CELL_SIZE} blocks wide, larger
+ * than in {@link SpatialIndex}, so that the arrays of a cell are shared by many
+ * homes even where homes are spread out.
+ * <p>
+ * The owner and name pools never shrink; both are bounded by the number of
+ * players and distinct home names, which are small next to the number of homes.
+ *
+ * @author daoge
+ */
+public class PackedHomeIndex implements HomeIndex {
+
+    public static final int CELL_SIZE = 256;
+
+    private static final int CELL_SHIFT = 8;
+
+    private final Map<SpatialIndex.DimensionKey, Long2ObjectOpenHashMap<Cell>> grids = new HashMap<>();
+    private final Object2IntOpenHashMap<UUID> ownerIds = new Object2IntOpenHashMap<>();
+    private final List<UUID> owners = new ArrayList<>();
+    private final Object2IntOpenHashMap<String> nameIds = new Object2IntOpenHashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int size;
+
+    public PackedHomeIndex() {
+        ownerIds.defaultReturnValue(-1);
+        nameIds.defaultReturnValue(-1);
+    }
+
+    @Override
+    public void put(HomeManager.HomeKey key, LocationRecord home) {
+        lock.writeLock().lock();
+        try {
+            int owner = intern(ownerIds, owners, key.owner());
+            int name = intern(nameIds, names, home.name());
+            Cell cell = grids.computeIfAbsent(SpatialIndex.DimensionKey.of(home), dimension -> new Long2ObjectOpenHashMap<>())
+                    .computeIfAbsent(cellKey(home), cellKey -> new Cell());
+            int index = cell.indexOf(owner, name);
+            if (index < 0) {
+                index = cell.add(owner, name);
+                size++;
+            }
+            cell.set(index, home);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(HomeManager.HomeKey key, LocationRecord home) {
+        lock.writeLock().lock();
+        try {
+            SpatialIndex.DimensionKey dimension = SpatialIndex.DimensionKey.of(home);
+            Long2ObjectOpenHashMap<Cell> grid = grids.get(dimension);
+            int owner = ownerIds.getInt(key.owner());
+            int name = nameIds.getInt(home.name());
+            if (grid == null || owner < 0 || name < 0) {
+                return;
+            }
+            long cellKey = cellKey(home);
+            Cell cell = grid.get(cellKey);
+            int index = cell == null ? -1 : cell.indexOf(owner, name);
+            if (index < 0) {
+                return;
+            }
+            cell.remove(index);
+            size--;
+            if (cell.size == 0) {
+                grid.remove(cellKey);
+                if (grid.isEmpty()) {
+                    grids.remove(dimension);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeOwners(Set<UUID> owners) {
+        lock.writeLock().lock();
+        try {
+            IntOpenHashSet ids = new IntOpenHashSet();
+            owners.forEach(owner -> {
+                int id = ownerIds.getInt(owner);
+                if (id >= 0) {
+                    ids.add(id);
+                }
+            });
+            if (ids.isEmpty()) {
+                return;
+            }
+            for (Iterator<Long2ObjectOpenHashMap<Cell>> grids = this.grids.values().iterator(); grids.hasNext(); ) {
+                Long2ObjectOpenHashMap<Cell> grid = grids.next();
+                for (Iterator<Cell> cells = grid.values().iterator(); cells.hasNext(); ) {
+                    Cell cell = cells.next();
+                    for (int i = cell.size - 1; i >= 0; i--) {
+                        if (ids.contains(cell.owners[i])) {
+                            cell.remove(i);
+                            size--;
+                        }
+                    }
+                    if (cell.size == 0) {
+                        cells.remove();
+                    }
+                }
+                if (grid.isEmpty()) {
+                    grids.remove();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void withinRadius(LocationRecord center, double radius, Consumer<SpatialIndex.Match<HomeManager.HomeKey>> consumer) {
+        SpatialIndex.DimensionKey dimension = SpatialIndex.DimensionKey.of(center);
+        double x = center.x();
+        double z = center.z();
+        double radiusSquared = SpatialIndex.square(radius);
+        List<SpatialIndex.Match<HomeManager.HomeKey>> matches = new ArrayList<>();
+        Consumer<Cell> visitor = cell -> {
+            for (int i = 0; i < cell.size; i++) {
+                double distanceSquared = SpatialIndex.square(cell.x(i) - x) + SpatialIndex.square(cell.z(i) - z);
+                if (distanceSquared <= radiusSquared) {
+                    matches.add(match(dimension, cell, i, Math.sqrt(distanceSquared)));
+                }
+            }
+        };
+        lock.readLock().lock();
+        try {
+            Long2ObjectOpenHashMap<Cell> grid = grids.get(dimension);
+            if (grid == null) {
+                return;
+            }
+            int minX = cell(x - radius);
+            int maxX = cell(x + radius);
+            int minZ = cell(z - radius);
+            int maxZ = cell(z + radius);
+            long area = (long) (maxX - minX + 1) * (maxZ - minZ + 1);
+            if (area > grid.size()) {
+                grid.values().forEach(visitor);
+            } else {
+                for (int cellX = minX; cellX <= maxX; cellX++) {
+                    for (int cellZ = minZ; cellZ <= maxZ; cellZ++) {
+                        Cell cell = grid.get(SpatialIndex.cellKey(cellX, cellZ));
+                        if (cell != null) {
+                            visitor.accept(cell);
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        // Hand the matches out after releasing the lock, the consumer may be slow
+        matches.forEach(consumer);
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private SpatialIndex.Match<HomeManager.HomeKey> match(SpatialIndex.DimensionKey dimension, Cell cell, int index, double distance) {
+        String name = names.get(cell.names[index]);
+        int offset = index * Cell.STRIDE;
+        double[] values = cell.values;
+        LocationRecord home = new LocationRecord(name, dimension.worldName(), dimension.dimensionId(),
+                values[offset], values[offset + 1], values[offset + 2], values[offset + 3], values[offset + 4]);
+        return new SpatialIndex.Match<>(new HomeManager.HomeKey(owners.get(cell.owners[index]), name.toLowerCase(Locale.ROOT)), home, distance);
+    }
+
+    private static <T> int intern(Object2IntOpenHashMap<T> ids, List<T> values, T value) {
+        int id = ids.getInt(value);
+        if (id < 0) {
+            id = values.size();
+            values.add(value);
+            ids.put(value, id);
+        }
+        return id;
+    }
+
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate) >> CELL_SHIFT;
+    }
+
+    private static long cellKey(LocationRecord home) {
+        return SpatialIndex.cellKey(cell(home.x()), cell(home.z()));
+    }
+
+    /**
+     * Homes of one cell in parallel arrays. Removal moves the last home into
+     * the freed slot, so the order of homes in a cell is not stable.
+     */
+    private static final class Cell {
+        private static final int STRIDE = 5;
+        private static final int INITIAL_CAPACITY = 2;
+
+        private int[] owners = new int[INITIAL_CAPACITY];
+        private int[] names = new int[INITIAL_CAPACITY];
+        // x, y, z, pitch, yaw of each home
+        private double[] values = new double[INITIAL_CAPACITY * STRIDE];
+        private int size;
+
+        private int indexOf(int owner, int name) {
+            for (int i = 0; i < size; i++) {
+                if (owners[i] == owner && names[i] == name) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int add(int owner, int name) {
+            if (size == owners.length) {
+                int capacity = size + Math.max(2, size >> 1);
+                owners = Arrays.copyOf(owners, capacity);
+                names = Arrays.copyOf(names, capacity);
+                values = Arrays.copyOf(values, capacity * STRIDE);
+            }
+            owners[size] = owner;
+            names[size] = name;
+            return size++;
+        }
+
+        private void set(int index, LocationRecord home) {
+            int offset = index * STRIDE;
+            values[offset] = home.x();
+            values[offset + 1] = home.y();
+            values[offset + 2] = home.z();
+            values[offset + 3] = home.pitch();
+            values[offset + 4] = home.yaw();
+        }
+
+        private void remove(int index) {
+            int last = --size;
+            owners[index] = owners[last];
+            names[index] = names[last];
+            System.arraycopy(values, last * STRIDE, values, index * STRIDE, STRIDE);
+        }
+
+        private double x(int index) {
+            return values[index * STRIDE];
+        }
+
+        private double z(int index) {
+            return values[index * STRIDE + 2];
+        }
+    }
+}
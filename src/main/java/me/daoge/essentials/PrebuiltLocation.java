@@ -0,0 +1,44 @@
+package me.daoge.essentials;
+
+import org.allaymc.api.math.location.Location3dc;
+
+/**
+ * A location built once from a {@link LocationRecord} and reused for every
+ * teleport until the {@link LocationResolver} cache is invalidated.
+ * <p>
+ * The returned location is shared and must not be modified.
+ *
+ * @author daoge
+ */
+public final class PrebuiltLocation {
+
+    private final LocationRecord record;
+    private volatile Built built;
+
+    public PrebuiltLocation(LocationRecord record) {
+        this.record = record;
+    }
+
+    public LocationRecord record() {
+        return record;
+    }
+
+    /**
+     * @return the shared location, or null if the world or dimension does not exist
+     */
+    public Location3dc get() {
+        int generation = LocationResolver.generation();
+        Built current = built;
+        if (current != null && current.generation() == generation) {
+            return current.location();
+        }
+        Location3dc location = record.toLocation();
+        if (location != null) {
+            built = new Built(generation, location);
+        }
+        return location;
+    }
+
+    private record Built(int generation, Location3dc location) {
+    }
+}
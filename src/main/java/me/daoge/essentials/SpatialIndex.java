@@ -0,0 +1,361 @@
+package me.daoge.essentials;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.allaymc.api.math.location.Location3dc;
+import org.allaymc.api.world.Dimension;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Grid index of locations for proximity queries.
+ * <p>
+ * Locations are grouped by (world, dimension) and bucketed into square cells of
+ * {@value #CELL_SIZE} blocks keyed by their packed cell coordinates. A nearest
+ * query scans rings of cells around the point and stops once no farther cell
+ * can hold a closer entry; a radius query only visits the cells overlapping the
+ * circle. Both fall back to scanning the occupied cells when that is cheaper, so
+ * sparse data far from the query point does not cause long ring walks.
+ * <p>
+ * Distances are horizontal (x and z). Entries are identified by a key, which
+ * callers must remove with the record it was added with. All methods are
+ * thread-safe.
+ *
+ * @param <K> entry key type
+ * @author daoge
+ */
+public class SpatialIndex<K> {
+
+    public static final int CELL_SIZE = 64;
+
+    private static final int CELL_SHIFT = 6;
+
+    private final Map<DimensionKey, Grid<K>> grids = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int size;
+
+    /**
+     * Add an entry, replacing an entry with the same key at the same location.
+     *
+     * @param key    entry key
+     * @param record entry location
+     */
+    public void put(K key, LocationRecord record) {
+        lock.writeLock().lock();
+        try {
+            Grid<K> grid = grids.computeIfAbsent(DimensionKey.of(record), dimension -> new Grid<>());
+            if (grid.cells.computeIfAbsent(cellKey(record.x(), record.z()), cell -> new HashMap<>()).put(key, record) == null) {
+                size++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove an entry.
+     *
+     * @param key    entry key
+     * @param record the record the entry was added with
+     */
+    public void remove(K key, LocationRecord record) {
+        lock.writeLock().lock();
+        try {
+            DimensionKey dimension = DimensionKey.of(record);
+            Grid<K> grid = grids.get(dimension);
+            if (grid == null) {
+                return;
+            }
+            long cellKey = cellKey(record.x(), record.z());
+            Map<K, LocationRecord> cell = grid.cells.get(cellKey);
+            if (cell == null || cell.remove(key) == null) {
+                return;
+            }
+            size--;
+            if (cell.isEmpty()) {
+                grid.cells.remove(cellKey);
+                if (grid.cells.isEmpty()) {
+                    grids.remove(dimension);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove all entries whose key matches, scanning every entry.
+     *
+     * @param filter selects the keys to remove
+     */
+    public void removeIf(Predicate<K> filter) {
+        lock.writeLock().lock();
+        try {
+            for (Iterator<Grid<K>> grids = this.grids.values().iterator(); grids.hasNext(); ) {
+                Grid<K> grid = grids.next();
+                for (Iterator<Map<K, LocationRecord>> cells = grid.cells.values().iterator(); cells.hasNext(); ) {
+                    Map<K, LocationRecord> cell = cells.next();
+                    int before = cell.size();
+                    cell.keySet().removeIf(filter);
+                    size -= before - cell.size();
+                    if (cell.isEmpty()) {
+                        cells.remove();
+                    }
+                }
+                if (grid.cells.isEmpty()) {
+                    grids.remove();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the entry closest to a location in the same dimension.
+     *
+     * @param location query point
+     * @return the closest entry, if the dimension has any
+     */
+    public Optional<Match<K>> nearest(Location3dc location) {
+        DimensionKey dimension = DimensionKey.of(location);
+        if (dimension == null) {
+            return Optional.empty();
+        }
+        double x = location.x();
+        double z = location.z();
+        lock.readLock().lock();
+        try {
+            Grid<K> grid = grids.get(dimension);
+            if (grid == null) {
+                return Optional.empty();
+            }
+            int centerX = cell(x);
+            int centerZ = cell(z);
+            Nearest<K> nearest = new Nearest<>(x, z);
+            for (int ring = 0; ; ring++) {
+                // Walking the ring costs more than looking at every occupied cell
+                if (8L * ring > grid.cells.size()) {
+                    grid.cells.values().forEach(nearest::accept);
+                    break;
+                }
+                visitRing(grid, centerX, centerZ, ring, nearest::accept);
+                // Cells beyond this ring are at least ring * CELL_SIZE blocks away
+                if (nearest.best != null && nearest.bestDistanceSquared <= square((double) ring * CELL_SIZE)) {
+                    break;
+                }
+            }
+            return nearest.result();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the entry closest to a location in the same dimension by scanning
+     * all entries, for collections too small to be worth indexing.
+     *
+     * @param entries  entries by key
+     * @param location query point
+     * @return the closest entry, if there is one in that dimension
+     */
+    public static <K> Optional<Match<K>> nearest(Map<K, LocationRecord> entries, Location3dc location) {
+        DimensionKey dimension = DimensionKey.of(location);
+        if (dimension == null) {
+            return Optional.empty();
+        }
+        Nearest<K> nearest = new Nearest<>(location.x(), location.z());
+        nearest.accept(entries, dimension);
+        return nearest.result();
+    }
+
+    /**
+     * Visit the entries within a horizontal radius of a location in the same dimension.
+     *
+     * @param location query point
+     * @param radius   radius in blocks
+     * @param consumer receives the entries, in no particular order
+     */
+    public void withinRadius(Location3dc location, double radius, Consumer<Match<K>> consumer) {
+        DimensionKey dimension = DimensionKey.of(location);
+        if (dimension != null) {
+            withinRadius(dimension, location.x(), location.z(), radius, consumer);
+        }
+    }
+
+    /**
+     * Visit the entries within a horizontal radius of a stored location, in the same dimension.
+     *
+     * @param center   query point; only its world, dimension and coordinates are used
+     * @param radius   radius in blocks
+     * @param consumer receives the entries, in no particular order
+     */
+    public void withinRadius(LocationRecord center, double radius, Consumer<Match<K>> consumer) {
+        withinRadius(DimensionKey.of(center), center.x(), center.z(), radius, consumer);
+    }
+
+    private void withinRadius(DimensionKey dimension, double x, double z, double radius, Consumer<Match<K>> consumer) {
+        double radiusSquared = square(radius);
+        Consumer<Map<K, LocationRecord>> visitor = cell -> cell.forEach((key, record) -> {
+            double distanceSquared = square(record.x() - x) + square(record.z() - z);
+            if (distanceSquared <= radiusSquared) {
+                consumer.accept(new Match<>(key, record, Math.sqrt(distanceSquared)));
+            }
+        });
+        lock.readLock().lock();
+        try {
+            Grid<K> grid = grids.get(dimension);
+            if (grid == null) {
+                return;
+            }
+            int minX = cell(x - radius);
+            int maxX = cell(x + radius);
+            int minZ = cell(z - radius);
+            int maxZ = cell(z + radius);
+            long area = (long) (maxX - minX + 1) * (maxZ - minZ + 1);
+            if (area > grid.cells.size()) {
+                grid.cells.values().forEach(visitor);
+                return;
+            }
+            for (int cellX = minX; cellX <= maxX; cellX++) {
+                for (int cellZ = minZ; cellZ <= maxZ; cellZ++) {
+                    Map<K, LocationRecord> cell = grid.cells.get(cellKey(cellX, cellZ));
+                    if (cell != null) {
+                        visitor.accept(cell);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void visitRing(Grid<?> grid, int centerX, int centerZ, int ring, Consumer<Map<?, LocationRecord>> visitor) {
+        if (ring == 0) {
+            visitCell(grid, centerX, centerZ, visitor);
+            return;
+        }
+        for (int offset = -ring; offset <= ring; offset++) {
+            visitCell(grid, centerX + offset, centerZ - ring, visitor);
+            visitCell(grid, centerX + offset, centerZ + ring, visitor);
+        }
+        for (int offset = -ring + 1; offset < ring; offset++) {
+            visitCell(grid, centerX - ring, centerZ + offset, visitor);
+            visitCell(grid, centerX + ring, centerZ + offset, visitor);
+        }
+    }
+
+    private static void visitCell(Grid<?> grid, int cellX, int cellZ, Consumer<Map<?, LocationRecord>> visitor) {
+        Map<?, LocationRecord> cell = grid.cells.get(cellKey(cellX, cellZ));
+        if (cell != null) {
+            visitor.accept(cell);
+        }
+    }
+
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate) >> CELL_SHIFT;
+    }
+
+    private static long cellKey(double x, double z) {
+        return cellKey(cell(x), cell(z));
+    }
+
+    static long cellKey(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+
+    static double square(double value) {
+        return value * value;
+    }
+
+    /**
+     * An entry found by a query.
+     *
+     * @param key      entry key
+     * @param record   entry location
+     * @param distance horizontal distance to the query point in blocks
+     */
+    public record Match<K>(K key, LocationRecord record, double distance) {
+    }
+
+    /**
+     * World display name and dimension id, which together identify a dimension.
+     */
+    record DimensionKey(String worldName, int dimensionId) {
+        static DimensionKey of(LocationRecord record) {
+            return new DimensionKey(record.worldName(), record.dimensionId());
+        }
+
+        private boolean contains(LocationRecord record) {
+            return dimensionId == record.dimensionId() && worldName.equals(record.worldName());
+        }
+
+        static DimensionKey of(Location3dc location) {
+            Dimension dimension = location.dimension();
+            if (dimension == null) {
+                return null;
+            }
+            return new DimensionKey(dimension.getWorld().getWorldData().getDisplayName(),
+                    dimension.getDimensionInfo().dimensionId());
+        }
+    }
+
+    private static final class Grid<K> {
+        private final Long2ObjectOpenHashMap<Map<K, LocationRecord>> cells = new Long2ObjectOpenHashMap<>();
+    }
+
+    private static final class Nearest<K> {
+        private final double x;
+        private final double z;
+        private Map.Entry<K, LocationRecord> best;
+        private double bestDistanceSquared = Double.MAX_VALUE;
+
+        private Nearest(double x, double z) {
+            this.x = x;
+            this.z = z;
+        }
+
+        private void accept(Map<?, LocationRecord> cell) {
+            accept(cell, null);
+        }
+
+        /**
+         * @param dimension only consider entries in this dimension, or null if all entries are in the right one
+         */
+        @SuppressWarnings("unchecked")
+        private void accept(Map<?, LocationRecord> cell, DimensionKey dimension) {
+            for (Map.Entry<?, LocationRecord> entry : cell.entrySet()) {
+                LocationRecord record = entry.getValue();
+                if (dimension != null && !dimension.contains(record)) {
+                    continue;
+                }
+                double distanceSquared = square(record.x() - x) + square(record.z() - z);
+                if (distanceSquared < bestDistanceSquared) {
+                    bestDistanceSquared = distanceSquared;
+                    best = (Map.Entry<K, LocationRecord>) entry;
+                }
+            }
+        }
+
+        private Optional<Match<K>> result() {
+            return best == null
+                    ? Optional.empty()
+                    : Optional.of(new Match<>(best.getKey(), best.getValue(), Math.sqrt(bestDistanceSquared)));
+        }
+    }
+}
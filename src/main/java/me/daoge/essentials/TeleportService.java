@@ -0,0 +1,411 @@
+package me.daoge.essentials;
+
+import me.daoge.essentials.audit.AuditAction;
+import me.daoge.essentials.audit.AuditLog;
+import me.daoge.essentials.metrics.Metrics;
+import org.allaymc.api.entity.interfaces.EntityPlayer;
+import org.allaymc.api.math.location.Location3dc;
+import org.allaymc.api.player.Player;
+import org.allaymc.api.plugin.Plugin;
+import org.allaymc.api.scheduler.Task;
+import org.allaymc.api.server.Server;
+import org.allaymc.api.utils.TextFormat;
+import org.allaymc.api.world.Dimension;
+import org.allaymc.api.world.chunk.ChunkManager;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Teleports players on behalf of Essentials commands, records where they
+ * came from so that /back can return them there and adds every teleport to
+ * the audit log.
+ * <p>
+ * Command teleports go through a short pipeline: the chunks around the
+ * destination are loaded asynchronously while a countdown is shown, and the
+ * player is only moved once both are done. The teleport is cancelled if the
+ * player moves during the countdown (when enabled) or if the chunks are not
+ * loaded within the timeout.
+ * <p>
+ * Groups of players are teleported in batches: the destination chunks are
+ * loaded once, then the players are moved a limited number per tick so that a
+ * mass teleport does not stall a single tick.
+ *
+ * @author daoge
+ */
+public class TeleportService {
+
+    /**
+     * Players with this permission skip the countdown and are not cancelled by moving.
+     */
+    public static final String INSTANT_PERMISSION = "essentials.teleport.instant";
+
+    private static final int TICKS_PER_SECOND = 20;
+    // Moving further than half a block cancels a pending teleport
+    private static final double MOVE_TOLERANCE_SQUARED = 0.5 * 0.5;
+
+    private final Plugin plugin;
+    private final BackManager backManager;
+    private final AuditLog auditLog;
+    // Pending command teleports by player runtime id, processed once per tick
+    private final Map<Long, PendingTeleport> pending = new ConcurrentHashMap<>();
+    private volatile EssentialsSettings.Teleport settings;
+
+    /**
+     * @param plugin      owning plugin, used to schedule teleports
+     * @param backManager back history to record origins in while /back is enabled, or null to never record them
+     * @param auditLog    audit log to record teleports in
+     * @param settings    teleport settings
+     */
+    public TeleportService(Plugin plugin, BackManager backManager, AuditLog auditLog, EssentialsSettings.Teleport settings) {
+        this.plugin = plugin;
+        this.backManager = backManager;
+        this.auditLog = auditLog;
+        this.settings = settings;
+    }
+
+    /**
+     * Start processing pending teleports using the server scheduler.
+     */
+    public void start() {
+        Server.getInstance().getScheduler().scheduleRepeating(plugin, () -> {
+            if (!pending.isEmpty()) {
+                tick();
+            }
+            return true;
+        }, 1);
+    }
+
+    /**
+     * Change the settings, e.g. after a config reload. Pending teleports keep their settings.
+     */
+    public void configure(EssentialsSettings.Teleport settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Teleport a player and record the origin on success.
+     *
+     * @param player      player to teleport
+     * @param destination target location
+     * @return true if the teleport succeeded
+     */
+    public boolean teleport(EntityPlayer player, Location3dc destination) {
+        // Capture the origin before teleporting, as the entity's location is updated in place
+        Location3dc current = player.getLocation();
+        LocationRecord origin = current != null && current.dimension() != null
+                ? LocationRecord.from(BackManager.REASON_TELEPORT, current)
+                : null;
+        boolean success = Metrics.time("teleport", () -> player.teleport(destination));
+        if (!success) {
+            Metrics.increment("teleport.failed");
+            return false;
+        }
+        if (origin != null && backManager != null && Feature.BACK.isEnabled()) {
+            backManager.record(player.getUniqueId(), origin);
+        }
+        if (destination.dimension() != null) {
+            auditLog.record(AuditAction.TELEPORT, player, "", LocationRecord.from("", destination));
+        }
+        return true;
+    }
+
+    /**
+     * Teleport a player after loading the destination and the countdown, and
+     * tell them how it went.
+     *
+     * @param player         player to teleport
+     * @param destination    target location
+     * @param successMessage message sent to the player after the teleport
+     */
+    public void teleportLater(EntityPlayer player, Location3dc destination, String successMessage) {
+        teleportLater(player, destination, outcome -> {
+            Player controller = player.getController();
+            if (controller == null) {
+                return;
+            }
+            if (outcome == Outcome.SUCCESS) {
+                controller.sendMessage(TextFormat.GREEN + successMessage);
+            } else if (outcome.getMessage() != null) {
+                controller.sendMessage(TextFormat.RED + outcome.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Teleport a player after loading the destination and the countdown. An
+     * earlier pending teleport of the player is replaced.
+     *
+     * @param player      player to teleport
+     * @param destination target location
+     * @param callback    receives the outcome on the server thread
+     */
+    public void teleportLater(EntityPlayer player, Location3dc destination, Consumer<Outcome> callback) {
+        EssentialsSettings.Teleport current = settings;
+        boolean instant = player.hasPermission(INSTANT_PERMISSION).asBoolean();
+        int warmupTicks = instant ? 0 : current.warmupSeconds() * TICKS_PER_SECOND;
+        CompletableFuture<Void> preload = preloadChunks(destination, current.preloadRadius());
+
+        // Nothing to wait for, teleport right away
+        if (warmupTicks == 0 && preload.isDone() && !preload.isCompletedExceptionally()) {
+            PendingTeleport previous = pending.remove(player.getRuntimeId());
+            if (previous != null) {
+                previous.callback().accept(Outcome.REPLACED);
+            }
+            callback.accept(teleport(player, destination) ? Outcome.SUCCESS : Outcome.FAILED);
+            return;
+        }
+
+        Location3dc start = player.getLocation();
+        boolean cancelOnMove = current.cancelOnMove() && !instant;
+        PendingTeleport teleport = new PendingTeleport(player, destination, preload, callback,
+                start.x(), start.y(), start.z(), warmupTicks, cancelOnMove,
+                Math.max(warmupTicks, current.preloadTimeoutSeconds() * TICKS_PER_SECOND));
+        PendingTeleport previous = pending.put(player.getRuntimeId(), teleport);
+        if (previous != null) {
+            previous.callback().accept(Outcome.REPLACED);
+        }
+        if (warmupTicks > 0) {
+            showCountdown(player, warmupTicks / TICKS_PER_SECOND, cancelOnMove);
+        }
+    }
+
+    /**
+     * Teleport a group of players to one destination, spread over several ticks.
+     * Must be called on the server thread; the callback runs there too.
+     *
+     * @param players     players to teleport
+     * @param destination target location, resolved once for all players
+     * @param onComplete  receives the outcome once every player has been handled
+     */
+    public void teleportBatch(Collection<EntityPlayer> players, Location3dc destination, Consumer<BatchResult> onComplete) {
+        EssentialsSettings.Teleport current = settings;
+        Queue<EntityPlayer> queue = new ArrayDeque<>(players);
+        CompletableFuture<Void> preload = preloadChunks(destination, current.preloadRadius());
+        Metrics.increment("teleport.batch");
+        BatchTask task = new BatchTask(queue, destination, current.batchPerTick(),
+                current.preloadTimeoutSeconds() * TICKS_PER_SECOND, preload, onComplete);
+        Server.getInstance().getScheduler().scheduleRepeating(plugin, task, 1);
+    }
+
+    /**
+     * Load the chunks around a location.
+     *
+     * @param location center
+     * @param radius   radius in chunks, 0 for only the chunk containing the location
+     * @return a future completed once all chunks are loaded
+     */
+    public static CompletableFuture<Void> preloadChunks(Location3dc location, int radius) {
+        Dimension dimension = location.dimension();
+        if (dimension == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        ChunkManager chunkManager = dimension.getChunkManager();
+        int centerX = (int) Math.floor(location.x()) >> 4;
+        int centerZ = (int) Math.floor(location.z()) >> 4;
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (int x = centerX - radius; x <= centerX + radius; x++) {
+            for (int z = centerZ - radius; z <= centerZ + radius; z++) {
+                futures.add(chunkManager.getOrLoadChunk(x, z));
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+    }
+
+    private void tick() {
+        for (Iterator<PendingTeleport> iterator = pending.values().iterator(); iterator.hasNext(); ) {
+            PendingTeleport teleport = iterator.next();
+            Outcome outcome = teleport.advance();
+            if (outcome == null) {
+                continue;
+            }
+            iterator.remove();
+            if (outcome == Outcome.SUCCESS) {
+                outcome = teleport(teleport.player(), teleport.destination()) ? Outcome.SUCCESS : Outcome.FAILED;
+            } else if (outcome == Outcome.TIMED_OUT) {
+                Metrics.increment("teleport.timed_out");
+            }
+            teleport.callback().accept(outcome);
+        }
+    }
+
+    private static void showCountdown(EntityPlayer player, int seconds, boolean cancelOnMove) {
+        Player controller = player.getController();
+        if (controller != null) {
+            controller.sendTip(TextFormat.YELLOW + "Teleporting in " + seconds + "..."
+                               + (cancelOnMove ? TextFormat.GRAY + " Don't move!" : ""));
+        }
+    }
+
+    private static boolean isOnline(EntityPlayer player) {
+        Player controller = player.getController();
+        return controller != null
+               && Server.getInstance().getPlayerManager().getPlayers().get(controller.getLoginData().getUuid()) == controller;
+    }
+
+    /**
+     * Outcome of a teleport requested via {@link #teleportLater}.
+     */
+    public enum Outcome {
+        SUCCESS(null),
+        FAILED("Teleportation failed."),
+        MOVED("Teleport cancelled because you moved."),
+        TIMED_OUT("Teleport cancelled, the destination could not be loaded in time."),
+        /**
+         * Replaced by a newer teleport of the same player, or the player left.
+         */
+        REPLACED(null);
+
+        private final String message;
+
+        Outcome(String message) {
+            this.message = message;
+        }
+
+        /**
+         * @return message for the player, or null if nothing should be said
+         */
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * Outcome of a batch teleport.
+     *
+     * @param teleported number of players teleported
+     * @param failed     number of players whose teleport failed or who left first
+     */
+    public record BatchResult(int teleported, int failed) {
+
+        /**
+         * @param destination destination description, e.g. "the hub"
+         * @return message for the sender of the batch
+         */
+        public String summary(String destination) {
+            return "Teleported " + teleported + " player(s) to " + destination
+                   + (failed > 0 ? ", " + failed + " failed" : "") + ".";
+        }
+    }
+
+    private static final class PendingTeleport {
+        private final EntityPlayer player;
+        private final Location3dc destination;
+        private final CompletableFuture<Void> preload;
+        private final Consumer<Outcome> callback;
+        private final double startX;
+        private final double startY;
+        private final double startZ;
+        private final int warmupTicks;
+        private final boolean cancelOnMove;
+        private final int timeoutTicks;
+        private int elapsedTicks;
+
+        private PendingTeleport(EntityPlayer player, Location3dc destination, CompletableFuture<Void> preload,
+                                Consumer<Outcome> callback, double startX, double startY, double startZ,
+                                int warmupTicks, boolean cancelOnMove, int timeoutTicks) {
+            this.player = player;
+            this.destination = destination;
+            this.preload = preload;
+            this.callback = callback;
+            this.startX = startX;
+            this.startY = startY;
+            this.startZ = startZ;
+            this.warmupTicks = warmupTicks;
+            this.cancelOnMove = cancelOnMove;
+            this.timeoutTicks = timeoutTicks;
+        }
+
+        /**
+         * Advance by one tick.
+         *
+         * @return the outcome if the teleport is finished, {@link Outcome#SUCCESS} meaning it should happen now
+         */
+        private Outcome advance() {
+            if (!isOnline(player)) {
+                return Outcome.REPLACED;
+            }
+            if (cancelOnMove && elapsedTicks < warmupTicks && hasMoved()) {
+                return Outcome.MOVED;
+            }
+            elapsedTicks++;
+            int remainingTicks = warmupTicks - elapsedTicks;
+            if (remainingTicks > 0) {
+                if (remainingTicks % TICKS_PER_SECOND == 0) {
+                    showCountdown(player, remainingTicks / TICKS_PER_SECOND, cancelOnMove);
+                }
+                return null;
+            }
+            if (preload.isDone()) {
+                return preload.isCompletedExceptionally() ? Outcome.TIMED_OUT : Outcome.SUCCESS;
+            }
+            return elapsedTicks >= timeoutTicks ? Outcome.TIMED_OUT : null;
+        }
+
+        private boolean hasMoved() {
+            Location3dc location = player.getLocation();
+            double dx = location.x() - startX;
+            double dy = location.y() - startY;
+            double dz = location.z() - startZ;
+            return dx * dx + dy * dy + dz * dz > MOVE_TOLERANCE_SQUARED;
+        }
+
+        private EntityPlayer player() {
+            return player;
+        }
+
+        private Location3dc destination() {
+            return destination;
+        }
+
+        private Consumer<Outcome> callback() {
+            return callback;
+        }
+    }
+
+    private final class BatchTask implements Task {
+        private final Queue<EntityPlayer> queue;
+        private final Location3dc destination;
+        private final int budget;
+        private final int timeoutTicks;
+        private final CompletableFuture<Void> preload;
+        private final Consumer<BatchResult> onComplete;
+        private int waitedTicks;
+        private int teleported;
+        private int failed;
+
+        private BatchTask(Queue<EntityPlayer> queue, Location3dc destination, int budget, int timeoutTicks,
+                          CompletableFuture<Void> preload, Consumer<BatchResult> onComplete) {
+            this.queue = queue;
+            this.destination = destination;
+            this.budget = budget;
+            this.timeoutTicks = timeoutTicks;
+            this.preload = preload;
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        public boolean onRun() {
+            // Admin batches go ahead after the timeout and let the teleports load the chunks
+            if (!preload.isDone() && waitedTicks++ < timeoutTicks) {
+                return true;
+            }
+            for (int i = 0; i < budget && !queue.isEmpty(); i++) {
+                EntityPlayer player = queue.poll();
+                // Players may have left since the batch was queued
+                if (isOnline(player) && teleport(player, destination)) {
+                    teleported++;
+                } else {
+                    failed++;
+                }
+            }
+            if (!queue.isEmpty()) {
+                return true;
+            }
+            onComplete.accept(new BatchResult(teleported, failed));
+            return false;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package me.daoge.essentials;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel for expiring many items with O(1) scheduling.
+ * <p>
+ * The wheel is advanced by one slot per call to {@link #advance}; an item
+ * scheduled with a delay of {@code n} expires on the {@code n}-th advance.
+ * Cancelled items are not removed eagerly - callers are expected to ignore
+ * expirations of items that are no longer current. This class is not
+ * thread-safe.
+ *
+ * @param <T> item type
+ * @author daoge
+ */
+public class TimingWheel<T> {
+
+    private final List<List<Slot<T>>> wheel;
+    private int cursor;
+
+    /**
+     * @param slots number of slots, delays longer than this take multiple rotations
+     */
+    public TimingWheel(int slots) {
+        this.wheel = new ArrayList<>(slots);
+        for (int i = 0; i < slots; i++) {
+            wheel.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Schedule an item to expire after the given number of advances.
+     *
+     * @param item  item to expire
+     * @param delay number of advances, at least 1
+     */
+    public void schedule(T item, int delay) {
+        int ticks = Math.max(1, delay);
+        int size = wheel.size();
+        wheel.get((cursor + ticks) % size).add(new Slot<>(item, (ticks - 1) / size));
+    }
+
+    /**
+     * Move the wheel forward by one slot.
+     *
+     * @param expired receives every item whose delay has elapsed
+     */
+    public void advance(Consumer<T> expired) {
+        cursor = (cursor + 1) % wheel.size();
+        for (Iterator<Slot<T>> iterator = wheel.get(cursor).iterator(); iterator.hasNext(); ) {
+            Slot<T> slot = iterator.next();
+            if (slot.rounds == 0) {
+                iterator.remove();
+                expired.accept(slot.item);
+            } else {
+                slot.rounds--;
+            }
+        }
+    }
+
+    private static final class Slot<T> {
+        private final T item;
+        private int rounds;
+
+        private Slot(T item, int rounds) {
+            this.item = item;
+            this.rounds = rounds;
+        }
+    }
+}
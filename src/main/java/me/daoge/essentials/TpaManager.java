@@ -0,0 +1,285 @@
+package me.daoge.essentials;
+
+import org.allaymc.api.entity.interfaces.EntityPlayer;
+import org.allaymc.api.math.location.Location3d;
+import org.allaymc.api.player.Player;
+import org.allaymc.api.player.PlayerManager;
+import org.allaymc.api.plugin.Plugin;
+import org.allaymc.api.server.Server;
+import org.allaymc.api.utils.TextFormat;
+
+import java.util.*;
+
+/**
+ * Keeps track of pending teleport requests.
+ * <p>
+ * Requests are indexed both by target (a queue of requesters per target) and by
+ * requester (each player has at most one outgoing request), so cleaning up after
+ * a player is O(1) in the number of requests on the server. Requests expire
+ * after a configurable timeout driven by a {@link TimingWheel} advanced once per
+ * second by the server scheduler. All methods are thread-safe.
+ *
+ * @author daoge
+ */
+public class TpaManager {
+
+    private static final int TICKS_PER_SECOND = 20;
+    private static final int WHEEL_SLOTS = 64;
+
+    private final TeleportService teleportService;
+    private volatile int timeoutSeconds;
+    private volatile int maxPendingPerTarget;
+    // target -> requester -> request, in arrival order
+    private final Map<UUID, LinkedHashMap<UUID, Request>> byTarget = new HashMap<>();
+    private final Map<UUID, Request> byRequester = new HashMap<>();
+    private final TimingWheel<Request> expiry = new TimingWheel<>(WHEEL_SLOTS);
+    private long nextId;
+
+    /**
+     * @param teleportService     service used to carry out accepted requests
+     * @param timeoutSeconds      seconds before a request expires
+     * @param maxPendingPerTarget maximum number of requests queued for one player
+     */
+    public TpaManager(TeleportService teleportService, int timeoutSeconds, int maxPendingPerTarget) {
+        this.teleportService = teleportService;
+        configure(timeoutSeconds, maxPendingPerTarget);
+    }
+
+    /**
+     * Change the limits, e.g. after a config reload. Pending requests keep their expiry.
+     *
+     * @param timeoutSeconds      seconds before a request expires
+     * @param maxPendingPerTarget maximum number of requests queued for one player
+     */
+    public void configure(int timeoutSeconds, int maxPendingPerTarget) {
+        this.timeoutSeconds = Math.max(1, timeoutSeconds);
+        this.maxPendingPerTarget = Math.max(1, maxPendingPerTarget);
+    }
+
+    /**
+     * Start expiring requests using the server scheduler.
+     *
+     * @param plugin owning plugin
+     */
+    public void start(Plugin plugin) {
+        Server.getInstance().getScheduler().scheduleRepeating(plugin, () -> {
+            tick();
+            return true;
+        }, TICKS_PER_SECOND);
+    }
+
+    public int getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    /**
+     * Create a request. An earlier outgoing request of the same requester is replaced
+     * once the new one is accepted, and kept if it is not.
+     *
+     * @param requester player sending the request
+     * @param target    player receiving the request
+     * @param type      request type
+     * @return the request, or null if the target already has too many pending requests
+     */
+    public synchronized Request send(UUID requester, UUID target, RequestType type) {
+        Request previous = byRequester.get(requester);
+        LinkedHashMap<UUID, Request> queue = byTarget.get(target);
+        // A previous request to the same target is replaced, so it does not take a slot
+        int pending = queue == null ? 0 : queue.size() - (queue.containsKey(requester) ? 1 : 0);
+        if (pending >= maxPendingPerTarget) {
+            return null;
+        }
+        if (previous != null) {
+            unlink(previous);
+        }
+        queue = byTarget.computeIfAbsent(target, id -> new LinkedHashMap<>());
+        Request request = new Request(nextId++, requester, target, type);
+        queue.put(requester, request);
+        byRequester.put(requester, request);
+        expiry.schedule(request, timeoutSeconds);
+        return request;
+    }
+
+    /**
+     * Remove and return a pending request for the target.
+     *
+     * @param target    player who received the request
+     * @param requester requester to pick, or null for the oldest request
+     * @return the request, if any
+     */
+    public synchronized Optional<Request> take(UUID target, UUID requester) {
+        LinkedHashMap<UUID, Request> queue = byTarget.get(target);
+        if (queue == null || queue.isEmpty()) {
+            return Optional.empty();
+        }
+        Request request = requester == null ? queue.values().iterator().next() : queue.get(requester);
+        if (request == null) {
+            return Optional.empty();
+        }
+        unlink(request);
+        return Optional.of(request);
+    }
+
+    /**
+     * Check whether a request is still pending, i.e. not answered, replaced or expired.
+     */
+    public synchronized boolean isPending(Request request) {
+        return byRequester.get(request.requester()) == request;
+    }
+
+    /**
+     * Remove a specific request if it is still pending.
+     *
+     * @return true if the request was pending
+     */
+    public synchronized boolean remove(Request request) {
+        if (byRequester.get(request.requester()) != request) {
+            return false;
+        }
+        unlink(request);
+        return true;
+    }
+
+    /**
+     * @return pending requests for the target, oldest first
+     */
+    public synchronized List<Request> getPending(UUID target) {
+        LinkedHashMap<UUID, Request> queue = byTarget.get(target);
+        return queue == null ? List.of() : List.copyOf(queue.values());
+    }
+
+    /**
+     * Drop every request sent or received by the player, typically when they disconnect.
+     *
+     * @param playerId player uuid
+     */
+    public synchronized void removePlayer(UUID playerId) {
+        Request outgoing = byRequester.get(playerId);
+        if (outgoing != null) {
+            unlink(outgoing);
+        }
+        LinkedHashMap<UUID, Request> incoming = byTarget.remove(playerId);
+        if (incoming != null) {
+            incoming.keySet().forEach(byRequester::remove);
+        }
+    }
+
+    /**
+     * Carry out an answered request: teleport on accept and notify both players.
+     *
+     * @param request  the request taken via {@link #take}
+     * @param accepted whether the target accepted
+     */
+    public void respond(Request request, boolean accepted) {
+        PlayerManager playerManager = Server.getInstance().getPlayerManager();
+        Player target = playerManager.getPlayers().get(request.target());
+        Player requester = playerManager.getPlayers().get(request.requester());
+
+        if (requester == null) {
+            if (target != null) {
+                target.sendMessage(TextFormat.RED + "The player who requested TPA is no longer online.");
+            }
+            return;
+        }
+
+        if (target == null) {
+            requester.sendMessage(TextFormat.RED + "The target player is no longer online.");
+            return;
+        }
+
+        if (!accepted) {
+            requester.sendMessage(TextFormat.RED + "Your TPA request was denied.");
+            target.sendMessage(TextFormat.YELLOW + "You denied the TPA request from " + requester.getOriginName() + ".");
+            return;
+        }
+
+        // For /tpa the requester travels to the target, for /tpahere the other way round
+        Player traveller = request.type() == RequestType.TPA ? requester : target;
+        Player destination = request.type() == RequestType.TPA ? target : requester;
+        EntityPlayer travellerEntity = traveller.getControlledEntity();
+        EntityPlayer destinationEntity = destination.getControlledEntity();
+        if (travellerEntity == null || destinationEntity == null) {
+            requester.sendMessage(TextFormat.RED + "Cannot teleport: entity not found!");
+            target.sendMessage(TextFormat.RED + "Teleportation failed: entity not found!");
+            return;
+        }
+
+        // Snapshot the destination, the entity's location is updated in place while the traveller waits
+        Location3d location = new Location3d(destinationEntity.getLocation());
+        teleportService.teleportLater(travellerEntity, location, outcome -> {
+            switch (outcome) {
+                case SUCCESS -> {
+                    traveller.sendMessage(TextFormat.GREEN + "Teleported to " + destination.getOriginName() + "!");
+                    destination.sendMessage(TextFormat.GREEN + traveller.getOriginName() + " has been teleported to you!");
+                }
+                case REPLACED -> {
+                }
+                default -> {
+                    traveller.sendMessage(TextFormat.RED + outcome.getMessage());
+                    destination.sendMessage(TextFormat.RED + "The teleport of " + traveller.getOriginName() + " was cancelled.");
+                }
+            }
+        });
+    }
+
+    private void tick() {
+        List<Request> expired = new ArrayList<>();
+        synchronized (this) {
+            expiry.advance(request -> {
+                // Answered or replaced requests are left in the wheel and skipped here
+                if (byRequester.get(request.requester()) == request) {
+                    unlink(request);
+                    expired.add(request);
+                }
+            });
+        }
+        if (expired.isEmpty()) {
+            return;
+        }
+        Map<UUID, Player> players = Server.getInstance().getPlayerManager().getPlayers();
+        for (Request request : expired) {
+            Player requester = players.get(request.requester());
+            Player target = players.get(request.target());
+            if (requester != null) {
+                requester.sendMessage(TextFormat.YELLOW + "Your TPA request" +
+                                      (target != null ? " to " + target.getOriginName() : "") + " has expired.");
+            }
+            if (target != null && requester != null) {
+                target.sendMessage(TextFormat.GRAY + "The TPA request from " + requester.getOriginName() + " has expired.");
+            }
+        }
+    }
+
+    private void unlink(Request request) {
+        byRequester.remove(request.requester());
+        LinkedHashMap<UUID, Request> queue = byTarget.get(request.target());
+        if (queue != null) {
+            queue.remove(request.requester());
+            if (queue.isEmpty()) {
+                byTarget.remove(request.target());
+            }
+        }
+    }
+
+    public enum RequestType {
+        /**
+         * The requester teleports to the target.
+         */
+        TPA,
+        /**
+         * The target teleports to the requester.
+         */
+        TPAHERE
+    }
+
+    /**
+     * A pending teleport request.
+     *
+     * @param id        unique id, so that identical re-sent requests are distinguishable
+     * @param requester player who sent the request
+     * @param target    player who has to answer the request
+     * @param type      request type
+     */
+    public record Request(long id, UUID requester, UUID target, RequestType type) {
+    }
+}
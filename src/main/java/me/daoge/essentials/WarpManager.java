@@ -1,33 +1,69 @@
 package me.daoge.essentials;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
+import lombok.extern.slf4j.Slf4j;
+import me.daoge.essentials.metrics.Metrics;
+import me.daoge.essentials.storage.LocationStore;
+import me.daoge.essentials.storage.StorageBackend;
 import org.allaymc.api.math.location.Location3dc;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
- * Manage warp points stored under the plugin's data folder.
+ * Manage warp points stored in the {@code warp} {@link LocationStore}.
+ * <p>
+ * Warps are kept in a skip list keyed by their normalized name, so listing them
+ * in order, paging through them and looking up a name prefix only touch the
+ * requested entries. A {@link SpatialIndex} of the same warps answers
+ * proximity queries. Changes hold the manager's monitor, so that the skip list
+ * and the spatial index always change together. The warps are loaded in the
+ * background when the plugin starts, see {@link #isLoaded()}. When the storage is shared with other servers, the warps
+ * are reloaded whenever another server changes them.
  */
-public class WarpManager {
+@Slf4j
+public class WarpManager implements AutoCloseable {
 
-    private static final String WARP_FILE_NAME = "warp.json";
-    private static final Type WARP_LIST_TYPE = new TypeToken<List<LocationRecord>>() {
-    }.getType();
+    private static final String LEGACY_WARP_FILE_NAME = "warp.json";
+    private static final String WARP_NAMESPACE = "warp";
+    private static final int IMPORT_BATCH_SIZE = 1000;
 
-    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
-    private final Path warpFile;
-    private final Map<String, LocationRecord> warps = new ConcurrentHashMap<>();
+    private final LocationStore store;
+    private final ConcurrentNavigableMap<String, LocationRecord> warps = new ConcurrentSkipListMap<>();
+    private final SpatialIndex<String> index = new SpatialIndex<>();
+    // Pre-built locations of warps that have been teleported to, keyed like warps
+    private final Map<String, PrebuiltLocation> prebuilt = new ConcurrentHashMap<>();
+    private final boolean prebuiltLocations;
+    private final WriteBehindSaver saver;
+    private volatile boolean loaded;
 
-    public WarpManager(Path dataFolder) {
-        this.warpFile = dataFolder.resolve(WARP_FILE_NAME);
-        load();
+    /**
+     * @param dataFolder         plugin data folder
+     * @param backend            storage backend for the warp store
+     * @param saveIntervalMillis delay between background flushes in milliseconds
+     * @param prebuiltLocations  whether to reuse resolved locations of warps
+     */
+    public WarpManager(Path dataFolder, StorageBackend backend, long saveIntervalMillis, boolean prebuiltLocations) {
+        this.prebuiltLocations = prebuiltLocations;
+        this.store = backend.open(WARP_NAMESPACE);
+        this.saver = new WriteBehindSaver(WARP_NAMESPACE, saveIntervalMillis, store::flush);
+        EssentialsIO.run(() -> load(dataFolder));
+        backend.addChangeListener(namespaces -> {
+            if (namespaces.contains(WARP_NAMESPACE)) {
+                reload();
+            }
+        });
+    }
+
+    /**
+     * @return whether the warps have been loaded; until then the warp commands ask to wait
+     */
+    public boolean isLoaded() {
+        return loaded;
     }
 
     /**
@@ -38,18 +74,102 @@ public class WarpManager {
     }
 
     /**
-     * @return warp list sorted by name (case-insensitive)
+     * @return unmodifiable live view of the warps sorted by name (case-insensitive)
+     */
+    public Collection<LocationRecord> getSortedWarps() {
+        return Collections.unmodifiableCollection(warps.values());
+    }
+
+    /**
+     * @return number of warps
+     */
+    public int getWarpCount() {
+        return warps.size();
+    }
+
+    /**
+     * @param offset number of warps to skip
+     * @param limit  maximum number of warps to return
+     * @return a slice of the warps sorted by name (case-insensitive)
+     */
+    public List<LocationRecord> getWarps(int offset, int limit) {
+        Iterator<LocationRecord> iterator = warps.values().iterator();
+        for (int skipped = 0; skipped < offset && iterator.hasNext(); skipped++) {
+            iterator.next();
+        }
+        List<LocationRecord> result = new ArrayList<>(Math.min(limit, 64));
+        while (result.size() < limit && iterator.hasNext()) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+
+    /**
+     * Find warps whose name starts with the prefix (case-insensitive), in name order.
+     *
+     * @param prefix name prefix, empty for all warps
+     * @param after  only return warps sorted after this name, or null to start at the first match
+     * @param limit  maximum number of warps to return
+     * @return the matching warps
+     */
+    public List<LocationRecord> getWarpsAfter(String prefix, String after, int limit) {
+        NavigableMap<String, LocationRecord> range = prefixRange(prefix);
+        if (after != null) {
+            range = range.tailMap(normalize(after), false);
+        }
+        return take(range.values(), limit);
+    }
+
+    /**
+     * Find warps whose name starts with the prefix (case-insensitive) that are sorted
+     * right before the given name, e.g. to show the previous page of a list.
+     *
+     * @param prefix name prefix, empty for all warps
+     * @param before only return warps sorted before this name
+     * @param limit  maximum number of warps to return
+     * @return the matching warps, in name order
+     */
+    public List<LocationRecord> getWarpsBefore(String prefix, String before, int limit) {
+        List<LocationRecord> result = new ArrayList<>(take(
+                prefixRange(prefix).headMap(normalize(before), false).descendingMap().values(), limit));
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Find the warp closest to a location, in the same dimension.
+     *
+     * @param location query point
+     * @return the closest warp and its horizontal distance, if the dimension has any warp
      */
-    public List<LocationRecord> getSortedWarps() {
-        return warps.values().stream()
-                .sorted(Comparator.comparing(LocationRecord::name, String.CASE_INSENSITIVE_ORDER))
-                .toList();
+    public Optional<SpatialIndex.Match<String>> getNearestWarp(Location3dc location) {
+        return index.nearest(location);
     }
 
     public Optional<LocationRecord> getWarp(String name) {
         return Optional.ofNullable(warps.get(normalize(name)));
     }
 
+    /**
+     * Resolve a warp into a location. When pre-built locations are enabled the
+     * same shared instance is returned until a world is loaded or unloaded.
+     *
+     * @param warp warp record
+     * @return the location, or null if its world or dimension does not exist
+     */
+    public Location3dc resolve(LocationRecord warp) {
+        if (!prebuiltLocations) {
+            return warp.toLocation();
+        }
+        String key = normalize(warp.name());
+        PrebuiltLocation location = prebuilt.get(key);
+        if (location == null || location.record() != warp) {
+            location = new PrebuiltLocation(warp);
+            prebuilt.put(key, location);
+        }
+        return location.get();
+    }
+
     /**
      * Add a warp using the given location.
      *
@@ -57,16 +177,18 @@ public class WarpManager {
      * @param location location snapshot
      * @return true if added, false if name exists or location invalid
      */
-    public boolean addWarp(String name, Location3dc location) {
+    public synchronized boolean addWarp(String name, Location3dc location) {
         if (location == null || location.dimension() == null) {
             return false;
         }
         String key = normalize(name);
-        if (warps.containsKey(key)) {
+        LocationRecord record = LocationRecord.from(name, location);
+        if (warps.putIfAbsent(key, record) != null) {
             return false;
         }
-        warps.put(key, LocationRecord.from(name, location));
-        save();
+        index.put(key, record);
+        store.put(key, record);
+        saver.markDirty();
         return true;
     }
 
@@ -77,51 +199,203 @@ public class WarpManager {
      * @return true if removed
      */
     public boolean removeWarp(String name) {
-        LocationRecord removed = warps.remove(normalize(name));
-        if (removed != null) {
-            save();
-            return true;
-        }
-        return false;
+        return removeWarps(List.of(name)) > 0;
     }
 
-    private void load() {
-        try {
-            Files.createDirectories(warpFile.getParent());
-            if (!Files.exists(warpFile)) {
-                save();
-                return;
+    /**
+     * Add many warps with one write, skipping names that already exist.
+     *
+     * @param records warps to add
+     * @return number of warps added
+     */
+    public synchronized int addWarps(Collection<LocationRecord> records) {
+        int added = 0;
+        for (LocationRecord warp : records) {
+            String key = normalize(warp.name());
+            if (warps.putIfAbsent(key, warp) == null) {
+                index.put(key, warp);
+                store.put(key, warp);
+                added++;
             }
-            String content = Files.readString(warpFile);
-            if (content.isBlank()) {
-                return;
+        }
+        if (added > 0) {
+            saver.markDirty();
+        }
+        return added;
+    }
+
+    /**
+     * Remove many warps with one write.
+     *
+     * @param names warp names
+     * @return number of warps removed
+     */
+    public synchronized int removeWarps(Collection<String> names) {
+        int removed = 0;
+        for (String name : names) {
+            String key = normalize(name);
+            LocationRecord warp = warps.remove(key);
+            if (warp != null) {
+                index.remove(key, warp);
+                prebuilt.remove(key);
+                store.remove(key);
+                removed++;
             }
-            List<LocationRecord> loaded = gson.fromJson(content, WARP_LIST_TYPE);
-            if (loaded != null) {
-                loaded.forEach(warp -> warps.put(normalize(warp.name()), warp));
+        }
+        if (removed > 0) {
+            saver.markDirty();
+        }
+        return removed;
+    }
+
+    /**
+     * Write pending changes now rather than on the next background flush.
+     */
+    public void flush() {
+        saver.flushNow();
+    }
+
+    /**
+     * Add or overwrite the given warps.
+     *
+     * @param records warps to import
+     */
+    public synchronized void importWarps(Collection<LocationRecord> records) {
+        records.forEach(warp -> {
+            String key = normalize(warp.name());
+            put(key, warp);
+            prebuilt.remove(key);
+            store.put(key, warp);
+        });
+        saver.markDirty();
+    }
+
+    /**
+     * Import warps from a file in the layout of {@code warp.json}, streaming it
+     * in batches of {@value #IMPORT_BATCH_SIZE} rather than reading it at once.
+     *
+     * @param file      the file
+     * @param overwrite whether to overwrite existing warps of the same name or skip them
+     * @return number of warps read and imported
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public ImportResult importWarps(Path file, boolean overwrite) throws IOException {
+        List<LocationRecord> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+        int[] imported = new int[1];
+        int read = JsonLocationReader.readWarps(file, warp -> {
+            batch.add(warp);
+            if (batch.size() == IMPORT_BATCH_SIZE) {
+                imported[0] += importBatch(batch, overwrite);
+                batch.clear();
             }
-        } catch (Exception e) {
-            EssentialsPlugin.getInstance().getPluginLogger().error("Failed to load warps", e);
+        });
+        imported[0] += importBatch(batch, overwrite);
+        return new ImportResult(read, imported[0]);
+    }
+
+    /**
+     * Flush pending changes synchronously and stop the background writer.
+     */
+    @Override
+    public void close() {
+        saver.close();
+        store.close();
+    }
+
+    private int importBatch(List<LocationRecord> batch, boolean overwrite) {
+        if (!overwrite) {
+            return addWarps(batch);
         }
+        if (!batch.isEmpty()) {
+            importWarps(batch);
+        }
+        return batch.size();
     }
 
-    private void save() {
+    private synchronized void load(Path dataFolder) {
         try {
-            Files.createDirectories(warpFile.getParent());
-            String json = gson.toJson(new ArrayList<>(warps.values()), WARP_LIST_TYPE);
-            Files.writeString(
-                    warpFile,
-                    json,
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING
-            );
+            Metrics.time("load.warp", store::load).forEach(this::put);
+            migrateLegacyFile(dataFolder.resolve(LEGACY_WARP_FILE_NAME));
         } catch (Exception e) {
-            EssentialsPlugin.getInstance().getPluginLogger().error("Failed to save warps", e);
+            log.error("Failed to load warps", e);
+        } finally {
+            loaded = true;
         }
     }
 
+    /**
+     * Import the warp.json written by older versions into the store.
+     */
+    private void migrateLegacyFile(Path legacyFile) throws Exception {
+        if (!Files.exists(legacyFile)) {
+            return;
+        }
+        JsonLocationReader.readWarps(legacyFile, warp -> {
+            String key = normalize(warp.name());
+            put(key, warp);
+            store.put(key, warp);
+        });
+        store.flush();
+        Files.move(legacyFile, legacyFile.resolveSibling(LEGACY_WARP_FILE_NAME + ".migrated"));
+        log.info("Migrated {} into the warp store", LEGACY_WARP_FILE_NAME);
+    }
+
+    /**
+     * Replace the warps with the stored ones, keeping unchanged records so that
+     * their pre-built locations stay valid.
+     */
+    private synchronized void reload() {
+        Map<String, LocationRecord> stored = store.load();
+        for (Map.Entry<String, LocationRecord> entry : warps.entrySet()) {
+            String key = entry.getKey();
+            if (!stored.containsKey(key) && warps.remove(key, entry.getValue())) {
+                index.remove(key, entry.getValue());
+                prebuilt.remove(key);
+            }
+        }
+        stored.forEach((key, warp) -> {
+            if (!warp.equals(warps.get(key))) {
+                put(key, warp);
+                prebuilt.remove(key);
+            }
+        });
+    }
+
+    private void put(String key, LocationRecord warp) {
+        LocationRecord previous = warps.put(key, warp);
+        if (previous != null) {
+            index.remove(key, previous);
+        }
+        index.put(key, warp);
+    }
+
+    private NavigableMap<String, LocationRecord> prefixRange(String prefix) {
+        if (prefix.isEmpty()) {
+            return warps;
+        }
+        String from = normalize(prefix);
+        return warps.subMap(from, true, from + Character.MAX_VALUE, false);
+    }
+
+    private static List<LocationRecord> take(Collection<LocationRecord> records, int limit) {
+        List<LocationRecord> result = new ArrayList<>(Math.min(limit, 64));
+        for (LocationRecord record : records) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(record);
+        }
+        return result;
+    }
+
     private String normalize(String name) {
         return name.toLowerCase(Locale.ROOT);
     }
-}
 
+    /**
+     * @param read     number of warps in the file
+     * @param imported number of warps added or overwritten
+     */
+    public record ImportResult(int read, int imported) {
+    }
+}
@@ -0,0 +1,73 @@
+package me.daoge.essentials;
+
+import lombok.extern.slf4j.Slf4j;
+import me.daoge.essentials.metrics.Metrics;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Write-behind helper that coalesces mutations into periodic background flushes.
+ * <p>
+ * Callers mark the data dirty after each mutation; a background writer on
+ * {@link EssentialsIO} runs the flush action at most once per interval, no
+ * matter how many mutations happened in between. {@link #close()} performs a
+ * final synchronous flush.
+ *
+ * @author daoge
+ */
+@Slf4j
+public class WriteBehindSaver implements AutoCloseable {
+
+    private final String name;
+    private final Runnable flushAction;
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    private final EssentialsIO.Repeating writer;
+
+    /**
+     * @param name           name used for the writer thread and log messages
+     * @param intervalMillis delay between flush attempts in milliseconds
+     * @param flushAction    action that persists the current state
+     */
+    public WriteBehindSaver(String name, long intervalMillis, Runnable flushAction) {
+        this.name = name;
+        this.flushAction = flushAction;
+        this.writer = EssentialsIO.repeat(name + "-writer", intervalMillis, this::flushIfDirty);
+    }
+
+    /**
+     * Mark the data as changed so that it will be written by the next flush.
+     */
+    public void markDirty() {
+        dirty.set(true);
+    }
+
+    /**
+     * Synchronously flush pending changes on the calling thread.
+     */
+    public void flushNow() {
+        flushIfDirty();
+    }
+
+    /**
+     * Stop the background writer and flush any pending changes.
+     */
+    @Override
+    public void close() {
+        writer.close();
+        flushIfDirty();
+    }
+
+    private synchronized void flushIfDirty() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        try {
+            Metrics.time("save." + name, flushAction);
+        } catch (Exception e) {
+            // Keep the data dirty so the next attempt retries the write
+            dirty.set(true);
+            Metrics.increment("save." + name + ".failed");
+            log.error("Failed to flush {}", name, e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package me.daoge.essentials.audit;
+
+/**
+ * Kind of an {@link AuditEvent}.
+ *
+ * @author daoge
+ */
+public enum AuditAction {
+    TELEPORT("teleport"),
+    WARP_ADD("warp.add"),
+    WARP_REMOVE("warp.remove"),
+    WARP_IMPORT("warp.import"),
+    HUB_SET("hub.set"),
+    NOTICE_SET("notice.set");
+
+    private final String id;
+
+    AuditAction(String id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the name written to the audit log
+     */
+    public String id() {
+        return id;
+    }
+}
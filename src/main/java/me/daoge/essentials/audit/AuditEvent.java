@@ -0,0 +1,37 @@
+package me.daoge.essentials.audit;
+
+import me.daoge.essentials.LocationRecord;
+
+import java.util.UUID;
+
+/**
+ * One entry of the audit log. Every event has the same fields, fields that do
+ * not apply are empty.
+ *
+ * @param time      epoch milliseconds
+ * @param action    what happened, the {@link AuditAction#id()}
+ * @param actorId   uuid of the player who did it, null for the console
+ * @param actorName name of the player or command sender
+ * @param target    name of the changed warp, the file or notice content, empty for teleports
+ * @param location  destination or changed location, null if none
+ * @author daoge
+ */
+public record AuditEvent(
+        long time,
+        String action,
+        UUID actorId,
+        String actorName,
+        String target,
+        LocationRecord location
+) {
+
+    /**
+     * @return whether the filter is empty or equals the action, actor or target, ignoring case
+     */
+    public boolean matches(String filter) {
+        return filter.isEmpty()
+               || filter.equalsIgnoreCase(action)
+               || filter.equalsIgnoreCase(actorName)
+               || filter.equalsIgnoreCase(target);
+    }
+}
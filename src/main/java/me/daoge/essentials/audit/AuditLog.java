@@ -0,0 +1,172 @@
+package me.daoge.essentials.audit;
+
+import lombok.extern.slf4j.Slf4j;
+import me.daoge.essentials.EssentialsIO;
+import me.daoge.essentials.EssentialsSettings;
+import me.daoge.essentials.LocationRecord;
+import me.daoge.essentials.metrics.Metrics;
+import org.allaymc.api.command.CommandSender;
+import org.allaymc.api.entity.interfaces.EntityPlayer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Audit log of teleports and admin changes to warps, the hub and the notice.
+ * <p>
+ * Recording an event only puts it into a bounded lock-free queue; a background
+ * writer on {@link EssentialsIO} drains the queue into rotated JSON lines files
+ * in the {@value #FOLDER_NAME} folder. When the writer falls behind and the
+ * queue is full, new events are dropped and counted instead of blocking the
+ * thread that records them.
+ *
+ * @author daoge
+ */
+@Slf4j
+public class AuditLog implements AutoCloseable {
+
+    public static final String FOLDER_NAME = "audit";
+
+    // Files scanned by a query at most, newest first
+    private static final int QUERY_FILE_LIMIT = 10;
+
+    private final Path folder;
+    private final boolean enabled;
+    private final MpscRingBuffer<AuditEvent> queue;
+    private final AuditWriter writer;
+    private final LongAdder dropped = new LongAdder();
+    private final EssentialsIO.Repeating drainer;
+
+    /**
+     * @param dataFolder plugin data folder
+     * @param settings   audit settings
+     */
+    public AuditLog(Path dataFolder, EssentialsSettings.Audit settings) {
+        this.folder = dataFolder.resolve(FOLDER_NAME);
+        this.enabled = settings.enabled();
+        this.queue = new MpscRingBuffer<>(settings.queueSize());
+        this.writer = new AuditWriter(folder, settings.maxFileBytes(), settings.rotateIntervalMillis(),
+                settings.compress(), settings.maxFiles());
+        this.drainer = enabled ? EssentialsIO.repeat("audit-writer", settings.flushIntervalMillis(), this::drain) : null;
+    }
+
+    /**
+     * Record an event done by a command sender.
+     *
+     * @param action   what happened
+     * @param actor    player or console who did it
+     * @param target   name of the changed warp, file or notice content, empty if none
+     * @param location destination or changed location, null if none
+     */
+    public void record(AuditAction action, CommandSender actor, String target, LocationRecord location) {
+        UUID actorId = actor instanceof EntityPlayer player ? player.getUniqueId() : null;
+        record(action, actorId, actor.getCommandSenderName(), target, location);
+    }
+
+    /**
+     * Record an event. Never blocks; the event is dropped if the queue is full.
+     *
+     * @param action    what happened
+     * @param actorId   uuid of the player who did it, null for the console
+     * @param actorName name of the player or command sender
+     * @param target    name of the changed warp, file or notice content, empty if none
+     * @param location  destination or changed location, null if none
+     */
+    public void record(AuditAction action, UUID actorId, String actorName, String target, LocationRecord location) {
+        if (!enabled) {
+            return;
+        }
+        AuditEvent event = new AuditEvent(System.currentTimeMillis(), action.id(), actorId, actorName, target, location);
+        if (!queue.offer(event)) {
+            dropped.increment();
+            Metrics.increment("audit.dropped");
+        }
+    }
+
+    /**
+     * @return number of events dropped because the queue was full since the plugin was enabled
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return whether events are recorded
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Find the newest events matching a filter in the recent audit files.
+     * Blocks on file I/O, run it on {@link EssentialsIO}.
+     *
+     * @param filter action, actor or target to match ignoring case, empty for all events
+     * @param limit  maximum number of events
+     * @return matching events, newest first
+     * @throws IOException if the files cannot be read
+     */
+    public List<AuditEvent> query(String filter, int limit) throws IOException {
+        // Write queued events first, so that the query sees everything recorded so far
+        drain();
+        List<AuditEvent> events = new ArrayList<>(limit);
+        List<Path> files = AuditWriter.list(folder);
+        for (Path file : files.subList(0, Math.min(QUERY_FILE_LIMIT, files.size()))) {
+            List<AuditEvent> last = AuditWriter.readLast(file, filter, limit - events.size());
+            events.addAll(last.reversed());
+            if (events.size() == limit) {
+                break;
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Stop the background writer and write the queued events.
+     */
+    @Override
+    public void close() {
+        if (drainer != null) {
+            drainer.close();
+        }
+        drain();
+        synchronized (this) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.error("Failed to close the audit log", e);
+            }
+        }
+    }
+
+    /**
+     * Write all queued events. Synchronized, as the queue allows only one consumer.
+     */
+    private synchronized void drain() {
+        int written = 0;
+        try {
+            AuditEvent event;
+            while ((event = queue.poll()) != null) {
+                writer.write(event);
+                written++;
+            }
+            writer.flush();
+        } catch (IOException e) {
+            Metrics.increment("audit.write.failed");
+            log.error("Failed to write the audit log", e);
+            try {
+                // Start a new file with the next event
+                writer.close();
+            } catch (IOException ignored) {
+                // Already reported
+            }
+        }
+        if (written > 0 && Metrics.isEnabled()) {
+            Metrics.counter("audit.written").add(written);
+        }
+    }
+}
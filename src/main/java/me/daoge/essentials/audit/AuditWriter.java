@@ -0,0 +1,256 @@
+package me.daoge.essentials.audit;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import me.daoge.essentials.LocationRecord;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes audit events as JSON lines into rotated files of the audit folder.
+ * <p>
+ * A new file is started when the current one reaches the size limit, counted
+ * before compression, or is older than the rotation interval; only the newest
+ * files are kept. Files are named after the time they were started, so their
+ * names sort chronologically. Compressed files are flushed with a gzip sync
+ * flush, so that the lines written so far can be read while the file is open.
+ * Not thread-safe, {@link AuditLog} serializes all calls.
+ *
+ * @author daoge
+ */
+final class AuditWriter implements Closeable {
+
+    static final String FILE_PREFIX = "audit-";
+    static final String FILE_EXTENSION = ".jsonl";
+    static final String COMPRESSED_EXTENSION = FILE_EXTENSION + ".gz";
+
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneOffset.UTC);
+
+    private final Path folder;
+    private final long maxFileBytes;
+    private final long rotateIntervalMillis;
+    private final boolean compress;
+    private final int maxFiles;
+    private OutputStream out;
+    private long fileBytes;
+    private long fileStarted;
+
+    /**
+     * @param folder               folder of the audit files
+     * @param maxFileBytes         uncompressed size at which a new file is started
+     * @param rotateIntervalMillis age at which a new file is started
+     * @param compress             whether files are gzip-compressed
+     * @param maxFiles             number of files kept, 0 to keep all
+     */
+    AuditWriter(Path folder, long maxFileBytes, long rotateIntervalMillis, boolean compress, int maxFiles) {
+        this.folder = folder;
+        this.maxFileBytes = maxFileBytes;
+        this.rotateIntervalMillis = rotateIntervalMillis;
+        this.compress = compress;
+        this.maxFiles = maxFiles;
+    }
+
+    void write(AuditEvent event) throws IOException {
+        byte[] line = toJson(event).getBytes(StandardCharsets.UTF_8);
+        long now = System.currentTimeMillis();
+        if (out == null || fileBytes + line.length > maxFileBytes || now - fileStarted >= rotateIntervalMillis) {
+            rotate(now);
+        }
+        out.write(line);
+        fileBytes += line.length;
+    }
+
+    void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            try {
+                out.close();
+            } finally {
+                out = null;
+            }
+        }
+    }
+
+    /**
+     * List the audit files of a folder, newest first.
+     */
+    static List<Path> list(Path folder) throws IOException {
+        if (!Files.isDirectory(folder)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.filter(AuditWriter::isAuditFile)
+                    .sorted(Comparator.comparing((Path file) -> file.getFileName().toString()).reversed())
+                    .toList();
+        }
+    }
+
+    /**
+     * Read the events of an audit file in order. Malformed lines are skipped,
+     * and a compressed file that is still being written is read up to its last
+     * flush.
+     */
+    static void read(Path file, Consumer<AuditEvent> consumer) throws IOException {
+        boolean compressed = file.getFileName().toString().endsWith(COMPRESSED_EXTENSION);
+        try (InputStream in = Files.newInputStream(file);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(
+                     compressed ? new UnfinishedGzipInputStream(in) : in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                AuditEvent event = fromJson(line);
+                if (event != null) {
+                    consumer.accept(event);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collect the last events of a file that match a filter, oldest first.
+     */
+    static List<AuditEvent> readLast(Path file, String filter, int limit) throws IOException {
+        ArrayDeque<AuditEvent> last = new ArrayDeque<>(limit);
+        read(file, event -> {
+            if (event.matches(filter)) {
+                if (last.size() == limit) {
+                    last.removeFirst();
+                }
+                last.addLast(event);
+            }
+        });
+        return new ArrayList<>(last);
+    }
+
+    private void rotate(long now) throws IOException {
+        close();
+        Files.createDirectories(folder);
+        String name = FILE_PREFIX + FILE_TIME.format(Instant.ofEpochMilli(now)) + (compress ? COMPRESSED_EXTENSION : FILE_EXTENSION);
+        OutputStream file = new BufferedOutputStream(Files.newOutputStream(folder.resolve(name),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+        out = compress ? new GZIPOutputStream(file, true) : file;
+        fileBytes = 0;
+        fileStarted = now;
+        deleteOldFiles();
+    }
+
+    private void deleteOldFiles() throws IOException {
+        if (maxFiles <= 0) {
+            return;
+        }
+        List<Path> files = list(folder);
+        for (Path file : files.subList(Math.min(maxFiles, files.size()), files.size())) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static boolean isAuditFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(FILE_PREFIX) && (name.endsWith(FILE_EXTENSION) || name.endsWith(COMPRESSED_EXTENSION));
+    }
+
+    private static String toJson(AuditEvent event) throws IOException {
+        StringWriter line = new StringWriter(160);
+        try (JsonWriter json = new JsonWriter(line)) {
+            LocationRecord location = event.location();
+            json.beginObject();
+            json.name("time").value(Instant.ofEpochMilli(event.time()).toString());
+            json.name("action").value(event.action());
+            json.name("actorId").value(event.actorId() != null ? event.actorId().toString() : "");
+            json.name("actor").value(event.actorName());
+            json.name("target").value(event.target());
+            json.name("world").value(location != null ? location.worldName() : "");
+            json.name("dimension").value(location != null ? location.dimensionId() : 0);
+            json.name("x").value(location != null ? location.x() : 0);
+            json.name("y").value(location != null ? location.y() : 0);
+            json.name("z").value(location != null ? location.z() : 0);
+            json.endObject();
+        }
+        return line.append('\n').toString();
+    }
+
+    private static AuditEvent fromJson(String line) {
+        try {
+            JsonObject json = JsonParser.parseString(line).getAsJsonObject();
+            String actorId = json.get("actorId").getAsString();
+            String world = json.get("world").getAsString();
+            LocationRecord location = world.isEmpty() ? null : new LocationRecord("", world,
+                    json.get("dimension").getAsInt(), json.get("x").getAsDouble(), json.get("y").getAsDouble(),
+                    json.get("z").getAsDouble(), 0, 0);
+            return new AuditEvent(
+                    Instant.parse(json.get("time").getAsString()).toEpochMilli(),
+                    json.get("action").getAsString(),
+                    actorId.isEmpty() ? null : UUID.fromString(actorId),
+                    json.get("actor").getAsString(),
+                    json.get("target").getAsString(),
+                    location
+            );
+        } catch (RuntimeException e) {
+            // Skip lines cut off by a crash or written by a newer version
+            return null;
+        }
+    }
+
+    /**
+     * Gzip stream that ends where the data written so far ends, instead of
+     * failing on a file the writer has not finished yet.
+     */
+    private static final class UnfinishedGzipInputStream extends InputStream {
+        private final InputStream in;
+        private GZIPInputStream gzip;
+        private boolean ended;
+
+        private UnfinishedGzipInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (ended) {
+                return -1;
+            }
+            try {
+                if (gzip == null) {
+                    gzip = new GZIPInputStream(in);
+                }
+                return gzip.read(buffer, offset, length);
+            } catch (EOFException e) {
+                ended = true;
+                return -1;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package me.daoge.essentials.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer.
+ * <p>
+ * Every slot carries a sequence number telling whose turn it is: a producer
+ * claims the next position with one CAS and publishes its element by advancing
+ * the slot's sequence, the consumer takes the element once the sequence says it
+ * is published and hands the slot back to the producers of the next lap. A full
+ * queue fails {@link #offer} instead of waiting, so producers never block.
+ *
+ * @author daoge
+ */
+final class MpscRingBuffer<E> {
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLong tail = new AtomicLong();
+    // Only accessed by the consumer
+    private long head;
+
+    /**
+     * @param capacity minimum number of elements, rounded up to a power of two
+     */
+    MpscRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        this.elements = new AtomicReferenceArray<>(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an element, from any thread.
+     *
+     * @return false if the queue is full
+     */
+    boolean offer(E element) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.getAcquire(index) - position;
+            if (difference == 0) {
+                long witness = tail.compareAndExchange(position, position + 1);
+                if (witness == position) {
+                    elements.setPlain(index, element);
+                    sequences.setRelease(index, position + 1);
+                    return true;
+                }
+                position = witness;
+            } else if (difference < 0) {
+                // The slot still holds an element of the previous lap
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Take the oldest element, from the consumer thread only.
+     *
+     * @return the element, or null if the queue is empty
+     */
+    E poll() {
+        int index = (int) (head & mask);
+        if (sequences.getAcquire(index) != head + 1) {
+            return null;
+        }
+        E element = elements.getPlain(index);
+        elements.setPlain(index, null);
+        sequences.setRelease(index, head + mask + 1);
+        head++;
+        return element;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
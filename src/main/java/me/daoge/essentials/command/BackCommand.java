@@ -1,75 +1,75 @@
 package me.daoge.essentials.command;
 
+import me.daoge.essentials.BackManager;
+import me.daoge.essentials.Feature;
+import me.daoge.essentials.LocationRecord;
+import me.daoge.essentials.TeleportService;
 import org.allaymc.api.command.Command;
 import org.allaymc.api.command.SenderType;
 import org.allaymc.api.command.tree.CommandNode;
 import org.allaymc.api.command.tree.CommandTree;
 import org.allaymc.api.math.location.Location3dc;
 import org.allaymc.api.permission.OpPermissionCalculator;
-import org.allaymc.api.utils.TextFormat;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.Optional;
 
 /**
- * Back command - teleports player to their last death location
+ * Back command - teleports player to the location they last left, i.e. their
+ * death location or the position before a teleport. {@code /back <n>} picks an
+ * older entry of the history.
  *
  * @author daoge
  */
 public class BackCommand extends Command {
 
-    // Store last death locations: playerUUID -> deathLocation
-    private static final Map<UUID, Location3dc> deathLocations = new HashMap<>();
+    private final BackManager backManager;
+    private final TeleportService teleportService;
 
-    public BackCommand() {
-        super("back", "Return to your last death location", "essentials.command.back");
+    public BackCommand(BackManager backManager, TeleportService teleportService) {
+        super("back", "Return to your last death location or position before a teleport", "essentials.command.back");
+        this.backManager = backManager;
+        this.teleportService = teleportService;
         OpPermissionCalculator.NON_OP_PERMISSIONS.addAll(this.permissions);
     }
 
-    /**
-     * Store a death location for a player
-     */
-    public static void setDeathLocation(UUID playerUUID, Location3dc location) {
-        deathLocations.put(playerUUID, location);
-    }
-
-    /**
-     * Remove a player's death location
-     */
-    public static void removeDeathLocation(UUID playerUUID) {
-        deathLocations.remove(playerUUID);
-    }
-
     @Override
     public void prepareCommandTree(CommandTree tree) {
         CommandNode root = tree.getRoot();
 
-        root.exec((context, player) -> {
-            UUID playerUUID = player.getUniqueId();
-            Location3dc deathLoc = deathLocations.get(playerUUID);
+        root.intNum("index", 1)
+                .optional()
+                .exec(Feature.BACK.guard("back", (context, player) -> {
+                    int n = context.getResult(0);
+                    if (n < 1 || n > backManager.getHistorySize()) {
+                        context.addError("Index must be between 1 and %d!", backManager.getHistorySize());
+                        return context.fail();
+                    }
 
-            if (deathLoc == null) {
-                context.addError("You don't have a death location to return to!");
-                return context.fail();
-            }
+                    if (!backManager.isLoaded(player.getUniqueId())) {
+                        context.addError(Feature.STILL_LOADING_MESSAGE);
+                        return context.fail();
+                    }
 
-            // Check if the dimension is still valid
-            if (deathLoc.dimension() == null) {
-                context.addError("The dimension of your death location is no longer available!");
-                return context.fail();
-            }
+                    Optional<LocationRecord> entry = backManager.get(player.getUniqueId(), n);
+                    if (entry.isEmpty()) {
+                        context.addError(n == 1
+                                ? "You don't have a location to return to!"
+                                : "You don't have that many locations to return to!");
+                        return context.fail();
+                    }
 
-            // Teleport player to death location
-            boolean success = player.teleport(deathLoc);
-            if (success) {
-                context.addOutput(TextFormat.GREEN + "Teleported to your last death location!");
-            } else {
-                context.addError("Teleportation failed!");
-                return context.fail();
-            }
+                    // Check if the world and dimension are still available
+                    Location3dc location = entry.get().toLocation();
+                    if (location == null) {
+                        context.addError("The dimension of that location is no longer available!");
+                        return context.fail();
+                    }
 
-            return context.success();
-        }, SenderType.PLAYER);
+                    String reason = BackManager.REASON_DEATH.equals(entry.get().name())
+                            ? "your death location"
+                            : "your position before teleporting";
+                    teleportService.teleportLater(player, location, "Teleported back to " + reason + "!");
+                    return context.success();
+                }), SenderType.PLAYER);
     }
 }
@@ -0,0 +1,359 @@
+package me.daoge.essentials.command;
+
+import me.daoge.essentials.EssentialsIO;
+import me.daoge.essentials.EssentialsPlugin;
+import me.daoge.essentials.Feature;
+import me.daoge.essentials.HomeMaintenance;
+import me.daoge.essentials.HomeManager;
+import me.daoge.essentials.JsonTransfer;
+import me.daoge.essentials.LocationRecord;
+import me.daoge.essentials.SpatialIndex;
+import me.daoge.essentials.audit.AuditEvent;
+import me.daoge.essentials.audit.AuditLog;
+import me.daoge.essentials.metrics.Counter;
+import me.daoge.essentials.metrics.Metrics;
+import me.daoge.essentials.metrics.Timer;
+import org.allaymc.api.command.Command;
+import org.allaymc.api.command.CommandSender;
+import org.allaymc.api.command.SenderType;
+import org.allaymc.api.command.tree.CommandNode;
+import org.allaymc.api.command.tree.CommandTree;
+import org.allaymc.api.math.location.Location3d;
+import org.allaymc.api.player.Player;
+import org.allaymc.api.server.Server;
+import org.allaymc.api.utils.TextFormat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Essentials command - administrative tools for the plugin's data.
+ *
+ * @author daoge
+ */
+public class EssentialsCommand extends Command {
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    private static final int HOMES_IN_RADIUS_LIMIT = 50;
+    private static final int AUDIT_QUERY_LIMIT = 20;
+    private static final DateTimeFormatter AUDIT_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final JsonTransfer jsonTransfer;
+    private final Path dataFolder;
+
+    public EssentialsCommand(JsonTransfer jsonTransfer, Path dataFolder) {
+        super("essentials", "Manage the Essentials plugin", "essentials.command.essentials");
+        this.jsonTransfer = jsonTransfer;
+        this.dataFolder = dataFolder;
+    }
+
+    @Override
+    public void prepareCommandTree(CommandTree tree) {
+        CommandNode root = tree.getRoot();
+
+        // /essentials export - write all data as JSON into the export folder
+        root.key("export")
+                .permission("essentials.command.essentials.export")
+                .exec(Feature.instrument("essentials.export", context -> {
+                    if (!Feature.HOME.isLoaded() || !Feature.WARP.isLoaded()) {
+                        context.addError(Feature.STILL_LOADING_MESSAGE);
+                        return context.fail();
+                    }
+                    CommandSender sender = context.getSender();
+                    Path folder = dataFolder.resolve(JsonTransfer.EXPORT_FOLDER_NAME);
+                    EssentialsIO.onServerThread(EssentialsIO.supply(folder.toString(), () -> {
+                        try {
+                            return jsonTransfer.exportTo(folder);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    })).whenComplete((count, error) -> {
+                        if (error != null) {
+                            EssentialsPlugin.getInstance().getPluginLogger().error("Failed to export data", error);
+                            sender.sendMessage(TextFormat.RED + "Export failed, see the console for details.");
+                        } else {
+                            sender.sendMessage(TextFormat.GREEN + "Exported " + count + " locations to " + folder);
+                        }
+                    });
+                    context.addOutput(TextFormat.YELLOW + "Exporting data...");
+                    return context.success();
+                }));
+
+        // /essentials import - merge JSON files from the import folder
+        root.key("import")
+                .permission("essentials.command.essentials.import")
+                .exec(Feature.instrument("essentials.import", context -> {
+                    if (!Feature.HOME.isLoaded() || !Feature.WARP.isLoaded()) {
+                        context.addError(Feature.STILL_LOADING_MESSAGE);
+                        return context.fail();
+                    }
+                    CommandSender sender = context.getSender();
+                    Path folder = dataFolder.resolve(JsonTransfer.IMPORT_FOLDER_NAME);
+                    EssentialsIO.onServerThread(EssentialsIO.supply(folder.toString(), () -> {
+                        try {
+                            return jsonTransfer.importFrom(folder);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    })).whenComplete((count, error) -> {
+                        if (error != null) {
+                            EssentialsPlugin.getInstance().getPluginLogger().error("Failed to import data", error);
+                            sender.sendMessage(TextFormat.RED + "Import failed, see the console for details.");
+                        } else {
+                            sender.sendMessage(TextFormat.GREEN + "Imported " + count + " locations from " + folder);
+                        }
+                    });
+                    context.addOutput(TextFormat.YELLOW + "Importing data...");
+                    return context.success();
+                }));
+
+        // /essentials reload - reload config.yml
+        root.key("reload")
+                .permission("essentials.command.essentials.reload")
+                .exec(Feature.instrument("essentials.reload", context -> {
+                    CommandSender sender = context.getSender();
+                    EssentialsPlugin.getInstance().reloadSettings().whenComplete((ignored, error) -> {
+                        if (error != null) {
+                            EssentialsPlugin.getInstance().getPluginLogger().error("Failed to reload the config", error);
+                            sender.sendMessage(TextFormat.RED + "Reload failed, see the console for details.");
+                        } else {
+                            sender.sendMessage(TextFormat.GREEN + "Configuration reloaded. Storage, cache and back settings apply after a restart.");
+                        }
+                    });
+                    context.addOutput(TextFormat.YELLOW + "Reloading configuration...");
+                    return context.success();
+                }));
+
+        // /essentials homes-in-radius <radius> - list every player's homes around the sender, e.g. before resetting a region
+        root.key("homes-in-radius")
+                .permission("essentials.command.essentials.homes-in-radius")
+                .intNum("radius")
+                .exec(Feature.instrument("essentials.homes-in-radius", (context, player) -> {
+                    int radius = context.getResult(1);
+                    if (radius < 1) {
+                        context.addError("Radius must be at least 1!");
+                        return context.fail();
+                    }
+                    HomeManager homeManager = EssentialsPlugin.getInstance().getHomeManager();
+                    if (!homeManager.isIndexReady()) {
+                        context.addError("Homes are still being indexed, please try again later.");
+                        return context.fail();
+                    }
+
+                    List<SpatialIndex.Match<HomeManager.HomeKey>> homes = homeManager.getHomesInRadius(player.getLocation(), radius);
+                    if (homes.isEmpty()) {
+                        context.addOutput(TextFormat.YELLOW + "No homes within " + radius + " blocks.");
+                        return context.success();
+                    }
+                    context.addOutput(TextFormat.GREEN + "%d home(s) within %d blocks, closest first:", homes.size(), radius);
+                    Map<UUID, Player> online = Server.getInstance().getPlayerManager().getPlayers();
+                    for (SpatialIndex.Match<HomeManager.HomeKey> home : homes.subList(0, Math.min(homes.size(), HOMES_IN_RADIUS_LIMIT))) {
+                        UUID owner = home.key().owner();
+                        Player ownerPlayer = online.get(owner);
+                        context.addOutput(TextFormat.GRAY + (ownerPlayer != null ? ownerPlayer.getOriginName() : owner.toString())
+                                          + ": " + TextFormat.WHITE + home.record().name()
+                                          + TextFormat.GRAY + " (" + Math.round(home.distance()) + " blocks)");
+                    }
+                    if (homes.size() > HOMES_IN_RADIUS_LIMIT) {
+                        context.addOutput(TextFormat.GRAY + "... and %d more.", homes.size() - HOMES_IN_RADIUS_LIMIT);
+                    }
+                    return context.success();
+                }), SenderType.PLAYER);
+
+        // /essentials purge ... - remove homes in bulk, off the server thread
+        CommandNode purge = root.key("purge").permission("essentials.command.essentials.purge");
+        purge.key("world")
+                .str("world")
+                .exec(Feature.instrument("essentials.purge", context -> {
+                    String world = context.getResult(2);
+                    CommandSender sender = context.getSender();
+                    report(sender, "Purging homes in world " + world,
+                            homeMaintenance -> homeMaintenance.purgeWorld(world, progress(sender)));
+                    return context.success();
+                }));
+        purge.key("inactive")
+                .intNum("days")
+                .exec(Feature.instrument("essentials.purge", context -> {
+                    int days = context.getResult(2);
+                    if (days < 1) {
+                        context.addError("Days must be at least 1!");
+                        return context.fail();
+                    }
+                    CommandSender sender = context.getSender();
+                    report(sender, "Purging homes of players inactive for " + days + " days",
+                            homeMaintenance -> homeMaintenance.purgeInactive(days, progress(sender)));
+                    return context.success();
+                }));
+        purge.key("region")
+                .intNum("radius")
+                .exec(Feature.instrument("essentials.purge", (context, player) -> {
+                    int radius = context.getResult(2);
+                    if (radius < 1) {
+                        context.addError("Radius must be at least 1!");
+                        return context.fail();
+                    }
+                    Location3d center = new Location3d(player.getLocation());
+                    report(player, "Purging homes within " + radius + " blocks",
+                            homeMaintenance -> homeMaintenance.purgeRegion(center, radius, progress(player)));
+                    return context.success();
+                }), SenderType.PLAYER);
+
+        // /essentials movehomes <from> <to> - point every home in a world to another world
+        root.key("movehomes")
+                .permission("essentials.command.essentials.movehomes")
+                .str("from")
+                .str("to")
+                .exec(Feature.instrument("essentials.movehomes", context -> {
+                    String from = context.getResult(1);
+                    String to = context.getResult(2);
+                    CommandSender sender = context.getSender();
+                    report(sender, "Moving homes from world " + from + " to " + to,
+                            homeMaintenance -> homeMaintenance.moveWorld(from, to, progress(sender)));
+                    return context.success();
+                }));
+
+        // /essentials audit [filter] - show the newest audit events, optionally only those of an action, player or target
+        root.key("audit")
+                .permission("essentials.command.essentials.audit")
+                .str("filter", "")
+                .optional()
+                .exec(Feature.instrument("essentials.audit", context -> {
+                    AuditLog auditLog = EssentialsPlugin.getInstance().getAuditLog();
+                    if (!auditLog.isEnabled()) {
+                        context.addError("The audit log is disabled in the config.");
+                        return context.fail();
+                    }
+                    String filter = context.getResult(1);
+                    CommandSender sender = context.getSender();
+                    EssentialsIO.onServerThread(EssentialsIO.supply(() -> {
+                        try {
+                            return auditLog.query(filter, AUDIT_QUERY_LIMIT);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })).whenComplete((events, error) -> {
+                        if (error != null) {
+                            EssentialsPlugin.getInstance().getPluginLogger().error("Failed to read the audit log", error);
+                            sender.sendMessage(TextFormat.RED + "Reading the audit log failed, see the console for details.");
+                            return;
+                        }
+                        if (auditLog.getDropped() > 0) {
+                            sender.sendMessage(TextFormat.RED + "Dropped " + auditLog.getDropped() + " event(s) since the start because the writer fell behind.");
+                        }
+                        if (events.isEmpty()) {
+                            sender.sendMessage(TextFormat.YELLOW + "No matching audit events.");
+                            return;
+                        }
+                        sender.sendMessage(TextFormat.GREEN + "Newest " + events.size() + " audit event(s):");
+                        events.forEach(event -> sender.sendMessage(formatAuditEvent(event)));
+                    });
+                    return context.success();
+                }));
+
+        // /essentials stats - show command, teleport and storage timings
+        root.key("stats")
+                .permission("essentials.command.essentials.stats")
+                .exec(Feature.instrument("essentials.stats", context -> {
+                    Map<String, Timer> timers = Metrics.timers();
+                    Map<String, Counter> counters = Metrics.counters();
+                    if (!Metrics.isEnabled()) {
+                        context.addOutput(TextFormat.YELLOW + "Metrics are disabled in the config.");
+                        return context.success();
+                    }
+                    if (timers.isEmpty() && counters.isEmpty()) {
+                        context.addOutput(TextFormat.YELLOW + "No metrics recorded yet.");
+                        return context.success();
+                    }
+
+                    context.addOutput(TextFormat.GREEN + "Timings (ms): count / p50 / p95 / p99 / max");
+                    timers.forEach((name, timer) -> {
+                        Timer.Snapshot snapshot = timer.snapshot();
+                        context.addOutput(TextFormat.GRAY + name + ": " + TextFormat.WHITE + snapshot.count() + " / "
+                                          + millis(snapshot.percentile(0.5)) + " / "
+                                          + millis(snapshot.percentile(0.95)) + " / "
+                                          + millis(snapshot.percentile(0.99)) + " / "
+                                          + millis(snapshot.maxNanos()));
+                    });
+                    if (!counters.isEmpty()) {
+                        context.addOutput(TextFormat.GREEN + "Counters:");
+                        counters.forEach((name, counter) ->
+                                context.addOutput(TextFormat.GRAY + name + ": " + TextFormat.WHITE + counter.get()));
+                    }
+                    return context.success();
+                }))
+                .key("reset")
+                .exec(Feature.instrument("essentials.stats.reset", context -> {
+                    Metrics.reset();
+                    context.addOutput(TextFormat.GREEN + "Metrics have been reset.");
+                    return context.success();
+                }));
+    }
+
+    private static void report(CommandSender sender, String action,
+                               Function<HomeMaintenance, CompletableFuture<HomeMaintenance.Result>> operation) {
+        sender.sendMessage(TextFormat.YELLOW + action + "...");
+        EssentialsIO.onServerThread(operation.apply(EssentialsPlugin.getInstance().getHomeMaintenance())).whenComplete((result, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if (cause instanceof IllegalStateException) {
+                    sender.sendMessage(TextFormat.RED + cause.getMessage() + ".");
+                } else {
+                    EssentialsPlugin.getInstance().getPluginLogger().error("Home maintenance failed", cause);
+                    sender.sendMessage(TextFormat.RED + "The operation failed, see the console for details.");
+                }
+                return;
+            }
+            sender.sendMessage(TextFormat.GREEN + "Done: changed " + result.changedHomes() + " home(s) of "
+                               + result.affectedPlayers() + " player(s), scanned " + result.scannedPlayers() + " player(s)."
+                               + (result.skippedHomes() > 0 ? " " + result.skippedHomes() + " home(s) were modified meanwhile and skipped." : ""));
+        });
+    }
+
+    /**
+     * @return progress listener telling the sender about every tenth of the scan
+     */
+    private static Consumer<HomeMaintenance.Progress> progress(CommandSender sender) {
+        int[] reportedTenths = new int[1];
+        return progress -> {
+            int tenths = progress.totalPlayers() == 0 ? 10 : progress.scannedPlayers() * 10 / progress.totalPlayers();
+            if (tenths > reportedTenths[0]) {
+                reportedTenths[0] = tenths;
+                String message = TextFormat.GRAY + "Scanned " + progress.scannedPlayers() + "/" + progress.totalPlayers()
+                                 + " players, " + progress.plannedHomes() + " home(s) to change...";
+                EssentialsIO.runOnServerThread(() -> sender.sendMessage(message));
+            }
+        };
+    }
+
+    private static String formatAuditEvent(AuditEvent event) {
+        StringBuilder line = new StringBuilder()
+                .append(TextFormat.GRAY).append(AUDIT_TIME.format(Instant.ofEpochMilli(event.time()))).append(' ')
+                .append(TextFormat.WHITE).append(event.actorName()).append(' ')
+                .append(TextFormat.YELLOW).append(event.action());
+        if (!event.target().isEmpty()) {
+            line.append(' ').append(TextFormat.WHITE).append(event.target());
+        }
+        LocationRecord location = event.location();
+        if (location != null) {
+            line.append(TextFormat.GRAY).append(String.format(Locale.ROOT, " at %s (%.1f, %.1f, %.1f)",
+                    location.worldName(), location.x(), location.y(), location.z()));
+        }
+        return line.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.2f", nanos / NANOS_PER_MILLI);
+    }
+}
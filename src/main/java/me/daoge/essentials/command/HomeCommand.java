@@ -1,9 +1,14 @@
 package me.daoge.essentials.command;
 
+import me.daoge.essentials.Feature;
+import me.daoge.essentials.HomeLimitManager;
 import me.daoge.essentials.HomeManager;
 import me.daoge.essentials.LocationRecord;
+import me.daoge.essentials.TeleportService;
 import org.allaymc.api.command.Command;
+import org.allaymc.api.command.CommandResult;
 import org.allaymc.api.command.SenderType;
+import org.allaymc.api.command.tree.CommandContext;
 import org.allaymc.api.command.tree.CommandNode;
 import org.allaymc.api.command.tree.CommandTree;
 import org.allaymc.api.entity.interfaces.EntityPlayer;
@@ -18,6 +23,7 @@ import org.allaymc.api.utils.TextFormat;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.BiFunction;
 
 /**
  * Home command - manage and teleport to personal homes.
@@ -25,15 +31,20 @@ import java.util.UUID;
 public class HomeCommand extends Command {
 
     private final HomeManager homeManager;
+    private final TeleportService teleportService;
+    private final HomeLimitManager homeLimitManager;
 
-    public HomeCommand(HomeManager homeManager) {
+    public HomeCommand(HomeManager homeManager, TeleportService teleportService, HomeLimitManager homeLimitManager) {
         super("home", "Teleport to or manage your homes", "essentials.command.home");
         this.homeManager = homeManager;
+        this.teleportService = teleportService;
+        this.homeLimitManager = homeLimitManager;
         OpPermissionCalculator.NON_OP_PERMISSIONS.addAll(Set.of(
                 "essentials.command.home",
                 "essentials.command.home.tp",
                 "essentials.command.home.add",
                 "essentials.command.home.remove",
+                "essentials.command.home.nearest",
                 "essentials.command.home.list"
         ));
     }
@@ -44,9 +55,23 @@ public class HomeCommand extends Command {
 
         root.key("tp")
                 .permission("essentials.command.home.tp")
-                .exec((context, entityPlayer) -> {
+                .str("name", "")
+                .optional()
+                .exec(guard("home.tp", (context, entityPlayer) -> {
                     Player player = entityPlayer.getController();
                     UUID uuid = entityPlayer.getUniqueId();
+                    String name = context.getResult(1);
+                    if (!name.isBlank()) {
+                        // Teleport directly without building the form
+                        var home = homeManager.getHome(uuid, name);
+                        if (home.isEmpty()) {
+                            context.addError("Home \"" + name + "\" does not exist!");
+                            return context.fail();
+                        }
+                        teleportPlayer(entityPlayer, player, home.get());
+                        return context.success();
+                    }
+
                     List<LocationRecord> homes = homeManager.getSortedHomes(uuid);
                     if (homes.isEmpty()) {
                         context.addError("You have no homes set!");
@@ -63,25 +88,31 @@ public class HomeCommand extends Command {
                     form.onClose(() -> player.sendMessage(TextFormat.YELLOW + "Home selection closed."));
                     player.viewForm(form);
                     return context.success();
-                }, SenderType.ACTUAL_PLAYER);
+                }), SenderType.ACTUAL_PLAYER);
 
         root.key("add")
                 .permission("essentials.command.home.add")
-                .exec((context, entityPlayer) -> {
+                .exec(guard("home.add", (context, entityPlayer) -> {
                     Player player = entityPlayer.getController();
                     if (entityPlayer.getLocation() == null) {
                         context.addError("Cannot capture your current location!");
                         return context.fail();
                     }
 
+                    int limit = homeLimitManager.getLimit(entityPlayer);
+                    if (homeManager.getHomeCount(entityPlayer.getUniqueId()) >= limit) {
+                        context.addError("You have reached your limit of " + limit + " homes!");
+                        return context.fail();
+                    }
+
                     Location3d snapshot = new Location3d(entityPlayer.getLocation());
-                    showAddHomeForm(player, entityPlayer.getUniqueId(), snapshot);
+                    showAddHomeForm(entityPlayer, player, snapshot);
                     return context.success();
-                }, SenderType.ACTUAL_PLAYER);
+                }), SenderType.ACTUAL_PLAYER);
 
         root.key("remove")
                 .permission("essentials.command.home.remove")
-                .exec((context, entityPlayer) -> {
+                .exec(guard("home.remove", (context, entityPlayer) -> {
                     Player player = entityPlayer.getController();
                     List<LocationRecord> homes = homeManager.getSortedHomes(entityPlayer.getUniqueId());
                     if (homes.isEmpty()) {
@@ -105,11 +136,26 @@ public class HomeCommand extends Command {
                     form.onClose(() -> player.sendMessage(TextFormat.YELLOW + "Home removal cancelled."));
                     player.viewForm(form);
                     return context.success();
-                }, SenderType.ACTUAL_PLAYER);
+                }), SenderType.ACTUAL_PLAYER);
+
+        root.key("nearest")
+                .permission("essentials.command.home.nearest")
+                .exec(guard("home.nearest", (context, entityPlayer) -> {
+                    var nearest = homeManager.getNearestHome(entityPlayer.getUniqueId(), entityPlayer.getLocation());
+                    if (nearest.isEmpty()) {
+                        context.addOutput(TextFormat.YELLOW + "You have no homes in this dimension.");
+                        return context.success();
+                    }
+
+                    String name = nearest.get().record().name();
+                    context.addOutput(TextFormat.GREEN + "Your nearest home is " + name + ", "
+                                      + Math.round(nearest.get().distance()) + " blocks away. Use /home tp " + name + " to go there.");
+                    return context.success();
+                }), SenderType.ACTUAL_PLAYER);
 
         root.key("list")
                 .permission("essentials.command.home.list")
-                .exec((context, entityPlayer) -> {
+                .exec(guard("home.list", (context, entityPlayer) -> {
                     UUID uuid = entityPlayer.getUniqueId();
                     List<LocationRecord> homes = homeManager.getSortedHomes(uuid);
                     if (homes.isEmpty()) {
@@ -117,12 +163,29 @@ public class HomeCommand extends Command {
                         return context.success();
                     }
                     String names = String.join(", ", homes.stream().map(LocationRecord::name).toList());
-                    context.addOutput(TextFormat.GREEN + "Homes: " + names);
+                    int limit = homeLimitManager.getLimit(entityPlayer);
+                    String count = limit == HomeLimitManager.UNLIMITED ? String.valueOf(homes.size()) : homes.size() + "/" + limit;
+                    context.addOutput(TextFormat.GREEN + "Homes (" + count + "): " + names);
                     return context.success();
-                }, SenderType.ACTUAL_PLAYER);
+                }), SenderType.ACTUAL_PLAYER);
     }
 
-    private void showAddHomeForm(Player player, UUID uuid, Location3d snapshot) {
+    /**
+     * Wrap a home command with {@link Feature#guard} so that it also fails
+     * until the sender's homes have been loaded.
+     */
+    private BiFunction<CommandContext, EntityPlayer, CommandResult> guard(String command, BiFunction<CommandContext, EntityPlayer, CommandResult> handler) {
+        BiFunction<CommandContext, EntityPlayer, CommandResult> guarded = Feature.HOME.guard(command, handler);
+        return (context, entityPlayer) -> {
+            if (Feature.HOME.isEnabled() && !homeManager.isLoaded(entityPlayer.getUniqueId())) {
+                context.addError(Feature.STILL_LOADING_MESSAGE);
+                return context.fail();
+            }
+            return guarded.apply(context, entityPlayer);
+        };
+    }
+
+    private void showAddHomeForm(EntityPlayer entityPlayer, Player player, Location3d snapshot) {
         CustomForm form = Forms.custom()
                 .title("Add Home")
                 .input("Home name", "Enter a unique name");
@@ -136,11 +199,16 @@ public class HomeCommand extends Command {
                 return;
             }
 
-            boolean added = homeManager.addHome(uuid, name, snapshot);
+            UUID uuid = entityPlayer.getUniqueId();
+            // Checked again, homes may have been added while the form was open
+            int limit = homeLimitManager.getLimit(entityPlayer);
+            boolean added = homeManager.addHome(uuid, name, snapshot, limit);
             if (added) {
                 player.sendMessage(TextFormat.GREEN + "Home " + name + " has been created.");
             } else if (homeManager.getHome(uuid, name).isPresent()) {
                 player.sendMessage(TextFormat.RED + "Home \"" + name + "\" already exists.");
+            } else if (homeManager.getHomeCount(uuid) >= limit) {
+                player.sendMessage(TextFormat.RED + "You have reached your limit of " + limit + " homes.");
             } else {
                 player.sendMessage(TextFormat.RED + "Failed to save home location.");
             }
@@ -156,12 +224,7 @@ public class HomeCommand extends Command {
             return;
         }
 
-        boolean success = entityPlayer.teleport(location);
-        if (success) {
-            player.sendMessage(TextFormat.GREEN + "Teleported to home " + home.name() + "!");
-        } else {
-            player.sendMessage(TextFormat.RED + "Teleportation failed.");
-        }
+        teleportService.teleportLater(entityPlayer, location, "Teleported to home " + home.name() + "!");
     }
 }
 
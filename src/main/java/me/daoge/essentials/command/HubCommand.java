@@ -1,53 +1,78 @@
 package me.daoge.essentials.command;
 
+import me.daoge.essentials.Feature;
 import me.daoge.essentials.HubManager;
 import me.daoge.essentials.LocationRecord;
+import me.daoge.essentials.TeleportService;
 import org.allaymc.api.command.Command;
+import org.allaymc.api.command.CommandSender;
 import org.allaymc.api.command.CommandResult;
 import org.allaymc.api.command.SenderType;
 import org.allaymc.api.command.tree.CommandContext;
 import org.allaymc.api.command.tree.CommandNode;
 import org.allaymc.api.command.tree.CommandTree;
 import org.allaymc.api.entity.interfaces.EntityPlayer;
-import org.allaymc.api.math.location.Location3d;
+import org.allaymc.api.math.location.Location3dc;
 import org.allaymc.api.permission.OpPermissionCalculator;
 import org.allaymc.api.utils.TextFormat;
 
+import java.util.List;
+
 public class HubCommand extends Command {
     private final HubManager hubManager;
+    private final TeleportService teleportService;
 
-    public HubCommand(HubManager hubManager) {
+    public HubCommand(HubManager hubManager, TeleportService teleportService) {
         super("hub", "Teleport to the hub spawn location", "essentials.command.hub");
         OpPermissionCalculator.NON_OP_PERMISSIONS.addAll(this.permissions);
         this.hubManager = hubManager;
+        this.teleportService = teleportService;
     }
 
     @Override
     public void prepareCommandTree(CommandTree tree) {
         CommandNode root = tree.getRoot();
-        root.exec((context, player) -> {
+        root.exec(Feature.HUB.guard("hub", (context, player) -> {
             if (!hubManager.hasHub()) {
                 player.sendMessage(TextFormat.RED + "Hub location has not been set yet.");
                 player.sendMessage(TextFormat.GRAY + "An administrator needs to use /sethub to set the hub location.");
                 return context.fail();
             }
 
-            LocationRecord hubLocation = hubManager.getHub();
-            Location3d location = hubLocation.toLocation();
+            Location3dc location = hubManager.getHubLocation();
 
             if (location == null) {
                 player.sendMessage(TextFormat.RED + "Failed to load hub location. The world may not exist.");
                 return context.fail();
             }
 
-            boolean success = player.teleport(location);
-            if (success) {
-                player.sendMessage(TextFormat.GREEN + "Teleported to hub!");
-            } else {
-                player.sendMessage(TextFormat.RED + "Failed to teleport to hub.");
-            }
+            teleportService.teleportLater(player, location, "Teleported to hub!");
+            return context.success();
+        }), SenderType.PLAYER);
+
+        // /hub <players> - send a group of players to the hub, spread over several ticks
+        root.playerTarget("players")
+                .permission("essentials.command.hub.others")
+                .exec(Feature.HUB.guard("hub.others", context -> {
+                    List<EntityPlayer> players = context.getResult(0);
+                    if (players == null || players.isEmpty()) {
+                        context.addPlayerNotFoundError();
+                        return context.fail();
+                    }
+
+                    Location3dc location = hubManager.getHubLocation();
+                    if (location == null) {
+                        context.addError(hubManager.hasHub()
+                                ? "Failed to load hub location. The world may not exist."
+                                : "Hub location has not been set yet.");
+                        return context.fail();
+                    }
 
-            return success ? context.success() : context.fail();
-        }, SenderType.PLAYER);
+                    CommandSender sender = context.getSender();
+                    teleportService.teleportBatch(players, location, result ->
+                            sender.sendMessage(TextFormat.GREEN + result.summary("the hub")));
+                    context.addOutput(TextFormat.YELLOW + "Teleporting " + players.size() + " player(s) to the hub...");
+                    return context.success();
+                }));
     }
 }
@@ -1,5 +1,6 @@
 package me.daoge.essentials.command;
 
+import me.daoge.essentials.Feature;
 import org.allaymc.api.command.Command;
 import org.allaymc.api.command.SenderType;
 import org.allaymc.api.command.tree.CommandNode;
@@ -23,7 +24,7 @@ public class PingCommand extends Command {
     public void prepareCommandTree(CommandTree tree) {
         CommandNode root = tree.getRoot();
 
-        root.exec((context, player) -> {
+        root.exec(Feature.PING.guard("ping", (context, player) -> {
             int ping = player.getController().getPing();
             TextFormat color;
             if (ping < 50) {
@@ -37,6 +38,6 @@ public class PingCommand extends Command {
             context.addOutput("Your ping: " + color + ping + "ms");
 
             return context.success();
-        }, SenderType.ACTUAL_PLAYER);
+        }), SenderType.ACTUAL_PLAYER);
     }
 }
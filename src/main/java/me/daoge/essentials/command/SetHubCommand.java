@@ -1,7 +1,10 @@
 package me.daoge.essentials.command;
 
+import me.daoge.essentials.Feature;
 import me.daoge.essentials.HubManager;
 import me.daoge.essentials.LocationRecord;
+import me.daoge.essentials.audit.AuditAction;
+import me.daoge.essentials.audit.AuditLog;
 import org.allaymc.api.command.Command;
 import org.allaymc.api.command.CommandResult;
 import org.allaymc.api.command.SenderType;
@@ -13,24 +16,27 @@ import org.allaymc.api.utils.TextFormat;
 
 public class SetHubCommand extends Command {
     private final HubManager hubManager;
+    private final AuditLog auditLog;
 
-    public SetHubCommand(HubManager hubManager) {
+    public SetHubCommand(HubManager hubManager, AuditLog auditLog) {
         super("sethub", "Set the hub spawn location", "essentials.command.sethub");
         this.hubManager = hubManager;
+        this.auditLog = auditLog;
     }
 
     @Override
     public void prepareCommandTree(CommandTree tree) {
         CommandNode root = tree.getRoot();
-        root.exec((context, player) -> {
+        root.exec(Feature.HUB.guard("sethub", (context, player) -> {
             LocationRecord location = LocationRecord.from("hub", player.getLocation());
             hubManager.setHub(location);
+            auditLog.record(AuditAction.HUB_SET, player, "hub", location);
 
             player.sendMessage(TextFormat.GREEN + "Hub location has been set to your current position.");
             player.sendMessage(TextFormat.GRAY + String.format("World: %s, X: %.2f, Y: %.2f, Z: %.2f",
                     location.worldName(), location.x(), location.y(), location.z()));
 
             return context.success();
-        }, SenderType.PLAYER);
+        }), SenderType.PLAYER);
     }
 }
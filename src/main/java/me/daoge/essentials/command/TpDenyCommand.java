@@ -0,0 +1,27 @@
+package me.daoge.essentials.command;
+
+import me.daoge.essentials.TpaManager;
+import org.allaymc.api.command.Command;
+import org.allaymc.api.command.tree.CommandTree;
+import org.allaymc.api.permission.OpPermissionCalculator;
+
+/**
+ * TPDENY command - denies the oldest pending teleport request, or the one of a given player
+ *
+ * @author daoge
+ */
+public class TpDenyCommand extends Command {
+
+    private final TpaManager tpaManager;
+
+    public TpDenyCommand(TpaManager tpaManager) {
+        super("tpdeny", "Deny a pending teleport request", "essentials.command.tpdeny");
+        this.tpaManager = tpaManager;
+        OpPermissionCalculator.NON_OP_PERMISSIONS.addAll(this.permissions);
+    }
+
+    @Override
+    public void prepareCommandTree(CommandTree tree) {
+        TpaAnswerTree.build(tree.getRoot(), "tpdeny", tpaManager, false);
+    }
+}
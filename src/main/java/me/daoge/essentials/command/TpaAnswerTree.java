@@ -0,0 +1,56 @@
+package me.daoge.essentials.command;
+
+import me.daoge.essentials.Feature;
+import me.daoge.essentials.TpaManager;
+import org.allaymc.api.command.SenderType;
+import org.allaymc.api.command.tree.CommandNode;
+import org.allaymc.api.entity.interfaces.EntityPlayer;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Command tree shared by /tpaccept and /tpdeny: answers the oldest pending
+ * teleport request, or the one of a given player.
+ *
+ * @author daoge
+ */
+final class TpaAnswerTree {
+
+    private TpaAnswerTree() {
+    }
+
+    /**
+     * @param root       root node of the command tree
+     * @param command    command name, used for the guard
+     * @param tpaManager manager holding the pending requests
+     * @param accept     whether the command accepts or denies the request
+     */
+    static void build(CommandNode root, String command, TpaManager tpaManager, boolean accept) {
+        root.playerTarget("player")
+                .optional()
+                .exec(Feature.TPA.guard(command, (context, entityPlayer) -> {
+                    UUID targetUUID = entityPlayer.getUniqueId();
+
+                    UUID requesterUUID = null;
+                    List<EntityPlayer> requesters = context.getResult(0);
+                    if (requesters != null && !requesters.isEmpty()) {
+                        if (requesters.size() > 1) {
+                            context.addTooManyTargetsError();
+                            return context.fail();
+                        }
+                        requesterUUID = requesters.get(0).getUniqueId();
+                    }
+
+                    Optional<TpaManager.Request> request = tpaManager.take(targetUUID, requesterUUID);
+                    if (request.isEmpty()) {
+                        context.addError("You have no pending teleport request to %s!", accept ? "accept" : "deny");
+                        return context.fail();
+                    }
+
+                    tpaManager.respond(request.get(), accept);
+                    return context.success();
+                }), SenderType.ACTUAL_PLAYER);
+    }
+}
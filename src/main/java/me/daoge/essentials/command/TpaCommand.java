@@ -1,5 +1,7 @@
 package me.daoge.essentials.command;
 
+import me.daoge.essentials.Feature;
+import me.daoge.essentials.TpaManager;
 import org.allaymc.api.command.Command;
 import org.allaymc.api.command.SenderType;
 import org.allaymc.api.command.tree.CommandNode;
@@ -9,13 +11,10 @@ import org.allaymc.api.form.Forms;
 import org.allaymc.api.form.type.ModalForm;
 import org.allaymc.api.permission.OpPermissionCalculator;
 import org.allaymc.api.player.Player;
-import org.allaymc.api.player.PlayerManager;
-import org.allaymc.api.server.Server;
 import org.allaymc.api.utils.TextFormat;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
 import java.util.UUID;
 
 /**
@@ -25,21 +24,18 @@ import java.util.UUID;
  */
 public class TpaCommand extends Command {
 
-    // Store pending TPA requests: targetPlayer -> requesterPlayer
-    private static final Map<UUID, UUID> pendingRequests = new HashMap<>();
+    protected final TpaManager tpaManager;
+    private final TpaManager.RequestType type;
 
-    public TpaCommand() {
-        super("tpa", "Request teleportation to another player", "essentials.command.tpa");
-        OpPermissionCalculator.NON_OP_PERMISSIONS.addAll(this.permissions);
+    public TpaCommand(TpaManager tpaManager) {
+        this("tpa", "Request teleportation to another player", "essentials.command.tpa", tpaManager, TpaManager.RequestType.TPA);
     }
 
-    /**
-     * Remove a pending request (useful when player disconnects)
-     */
-    public static void removePendingRequest(UUID playerUUID) {
-        pendingRequests.remove(playerUUID);
-        // Also remove if this player is a requester
-        pendingRequests.entrySet().removeIf(entry -> entry.getValue().equals(playerUUID));
+    protected TpaCommand(String name, String description, String permission, TpaManager tpaManager, TpaManager.RequestType type) {
+        super(name, description, permission);
+        this.tpaManager = tpaManager;
+        this.type = type;
+        OpPermissionCalculator.NON_OP_PERMISSIONS.addAll(this.permissions);
     }
 
     @Override
@@ -47,7 +43,7 @@ public class TpaCommand extends Command {
         CommandNode root = tree.getRoot();
 
         root.playerTarget("player")
-                .exec((context, entityPlayer) -> {
+                .exec(Feature.TPA.guard(type.name().toLowerCase(Locale.ROOT), (context, entityPlayer) -> {
                     // Get Player from EntityPlayer
                     Player player = entityPlayer.getController();
 
@@ -78,90 +74,55 @@ public class TpaCommand extends Command {
                     }
 
                     if (target.equals(player)) {
-                        context.addError("You cannot teleport to yourself!");
+                        context.addError("You cannot send a teleport request to yourself!");
                         return context.fail();
                     }
 
                     UUID requesterUUID = player.getLoginData().getUuid();
                     UUID targetUUID = target.getLoginData().getUuid();
 
-                    // Check if there's already a pending request
-                    if (pendingRequests.containsKey(targetUUID)) {
-                        context.addError("There is already a pending TPA request for %s!", target.getOriginName());
+                    // Store the request, replacing an earlier one of this player
+                    TpaManager.Request request = tpaManager.send(requesterUUID, targetUUID, type);
+                    if (request == null) {
+                        context.addError("%s has too many pending teleport requests!", target.getOriginName());
                         return context.fail();
                     }
 
-                    // Store the request
-                    pendingRequests.put(targetUUID, requesterUUID);
-
                     // Send notification to requester
-                    context.addOutput(TextFormat.GREEN + "TPA request sent to %s!", target.getOriginName());
+                    context.addOutput(TextFormat.GREEN + "TPA request sent to %s! It expires in %d seconds.",
+                            target.getOriginName(), tpaManager.getTimeoutSeconds());
 
                     // Send notification to target
-                    target.sendMessage(TextFormat.YELLOW + player.getOriginName() + " wants to teleport to you!");
+                    String description = type == TpaManager.RequestType.TPA
+                            ? player.getOriginName() + " wants to teleport to you"
+                            : player.getOriginName() + " wants you to teleport to them";
+                    target.sendMessage(TextFormat.YELLOW + description + "! Use /tpaccept or /tpdeny to answer.");
 
                     // Create and show ModalForm to target
                     ModalForm form = Forms.modal()
                             .title("TPA Request")
-                            .content(player.getOriginName() + " wants to teleport to you.\nDo you want to accept?")
+                            .content(description + ".\nDo you want to accept?")
                             .trueButton("Accept")
                             .falseButton("Deny")
-                            .onTrue(() -> {
-                                handleTpaResponse(targetUUID, requesterUUID, true);
-                            })
-                            .onFalse(() -> {
-                                handleTpaResponse(targetUUID, requesterUUID, false);
-                            })
+                            .onTrue(() -> answer(request, true))
+                            .onFalse(() -> answer(request, false))
                             .onClose(() -> {
-                                // If form is closed without response, remove the request
-                                pendingRequests.remove(targetUUID);
+                                // The request stays pending until answered by command or expired
+                                if (tpaManager.isPending(request)) {
+                                    target.sendMessage(TextFormat.GRAY + "You can still answer with /tpaccept or /tpdeny.");
+                                }
                             });
 
                     target.viewForm(form);
 
                     return context.success();
-                }, SenderType.ACTUAL_PLAYER);
+                }), SenderType.ACTUAL_PLAYER);
     }
 
-    private void handleTpaResponse(UUID targetUUID, UUID requesterUUID, boolean accepted) {
-        pendingRequests.remove(targetUUID);
-
-        PlayerManager playerManager = Server.getInstance().getPlayerManager();
-        Player target = playerManager.getPlayers().get(targetUUID);
-        Player requester = playerManager.getPlayers().get(requesterUUID);
-
-        if (requester == null) {
-            if (target != null) {
-                target.sendMessage(TextFormat.RED + "The player who requested TPA is no longer online.");
-            }
-            return;
-        }
-
-        if (target == null) {
-            requester.sendMessage(TextFormat.RED + "The target player is no longer online.");
-            return;
-        }
-
-        if (accepted) {
-            // Teleport requester to target
-            if (requester.getControlledEntity() != null && target.getControlledEntity() != null) {
-                boolean success = requester.getControlledEntity().teleport(target.getControlledEntity().getLocation());
-                if (success) {
-                    requester.sendMessage(TextFormat.GREEN + "Teleporting to " + target.getOriginName() + "!");
-                    target.sendMessage(TextFormat.GREEN + requester.getOriginName() + " has been teleported to you!");
-                } else {
-                    requester.sendMessage(TextFormat.RED + "Teleportation failed!");
-                    target.sendMessage(TextFormat.RED + "Teleportation failed!");
-                }
-            } else {
-                requester.sendMessage(TextFormat.RED + "Cannot teleport: entity not found!");
-                if (target != null) {
-                    target.sendMessage(TextFormat.RED + "Teleportation failed: entity not found!");
-                }
-            }
-        } else {
-            requester.sendMessage(TextFormat.RED + "Your TPA request was denied.");
-            target.sendMessage(TextFormat.YELLOW + "You denied the TPA request from " + requester.getOriginName() + ".");
+    private void answer(TpaManager.Request request, boolean accepted) {
+        // The request may have expired or been answered by command in the meantime
+        if (tpaManager.remove(request)) {
+            tpaManager.respond(request, accepted);
         }
     }
 }
@@ -0,0 +1,15 @@
+package me.daoge.essentials.command;
+
+import me.daoge.essentials.TpaManager;
+
+/**
+ * TPAHERE command - asks another player to teleport to the sender
+ *
+ * @author daoge
+ */
+public class TpaHereCommand extends TpaCommand {
+
+    public TpaHereCommand(TpaManager tpaManager) {
+        super("tpahere", "Request another player to teleport to you", "essentials.command.tpahere", tpaManager, TpaManager.RequestType.TPAHERE);
+    }
+}
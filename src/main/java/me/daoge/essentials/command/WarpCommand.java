@@ -1,8 +1,16 @@
 package me.daoge.essentials.command;
 
+import me.daoge.essentials.EssentialsIO;
+import me.daoge.essentials.EssentialsPlugin;
+import me.daoge.essentials.Feature;
+import me.daoge.essentials.JsonTransfer;
 import me.daoge.essentials.LocationRecord;
+import me.daoge.essentials.TeleportService;
 import me.daoge.essentials.WarpManager;
+import me.daoge.essentials.audit.AuditAction;
+import me.daoge.essentials.audit.AuditLog;
 import org.allaymc.api.command.Command;
+import org.allaymc.api.command.CommandSender;
 import org.allaymc.api.command.SenderType;
 import org.allaymc.api.command.tree.CommandNode;
 import org.allaymc.api.command.tree.CommandTree;
@@ -11,26 +19,45 @@ import org.allaymc.api.form.Forms;
 import org.allaymc.api.form.type.CustomForm;
 import org.allaymc.api.form.type.SimpleForm;
 import org.allaymc.api.math.location.Location3d;
+import org.allaymc.api.math.location.Location3dc;
 import org.allaymc.api.permission.OpPermissionCalculator;
 import org.allaymc.api.player.Player;
 import org.allaymc.api.utils.TextFormat;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Warp command - manage and teleport to saved warp points.
  */
 public class WarpCommand extends Command {
 
+    private static final int FORM_PAGE_SIZE = 20;
+    private static final int LIST_PAGE_SIZE = 50;
+    private static final int SUGGESTION_LIMIT = 5;
+
     private final WarpManager warpManager;
+    private final TeleportService teleportService;
+    private final AuditLog auditLog;
+    private final Path importFolder;
 
-    public WarpCommand(WarpManager warpManager) {
+    public WarpCommand(WarpManager warpManager, TeleportService teleportService, AuditLog auditLog, Path dataFolder) {
         super("warp", "Teleport to or manage warp points", "essentials.command.warp");
         this.warpManager = warpManager;
+        this.teleportService = teleportService;
+        this.auditLog = auditLog;
+        this.importFolder = dataFolder.resolve(JsonTransfer.IMPORT_FOLDER_NAME).normalize();
         OpPermissionCalculator.NON_OP_PERMISSIONS.addAll(Set.of(
                 "essentials.command.warp",
                 "essentials.command.warp.tp",
+                "essentials.command.warp.search",
+                "essentials.command.warp.nearest",
                 "essentials.command.warp.list"
         ));
     }
@@ -41,44 +68,121 @@ public class WarpCommand extends Command {
 
         root.key("tp")
                 .permission("essentials.command.warp.tp")
-                .exec((context, entityPlayer) -> {
+                .str("name", "")
+                .optional()
+                .exec(Feature.WARP.guard("warp.tp", (context, entityPlayer) -> {
                     Player player = entityPlayer.getController();
+                    String name = context.getResult(1);
+
+                    if (name.isBlank()) {
+                        if (warpManager.getWarpCount() == 0) {
+                            context.addError("No warps available!");
+                            return context.fail();
+                        }
+                        openPage(player, new WarpForm("Warp", "Choose a warp to teleport to.", "",
+                                "Warp selection closed.", warp -> teleportPlayer(entityPlayer, player, warp)), null, 0);
+                        return context.success();
+                    }
 
-                    List<LocationRecord> warps = warpManager.getSortedWarps();
-                    if (warps.isEmpty()) {
-                        context.addError("No warps available!");
+                    LocationRecord warp = findWarp(name);
+                    if (warp == null) {
+                        context.addError(unknownWarpMessage(name));
                         return context.fail();
                     }
 
-                    SimpleForm form = Forms.simple()
-                            .title("Warp")
-                            .content("Choose a warp to teleport to.");
+                    teleportPlayer(entityPlayer, player, warp);
+                    return context.success();
+                }), SenderType.ACTUAL_PLAYER)
+                // /warp tp <name> <players> - send a group of players to a warp, spread over several ticks
+                .playerTarget("players")
+                .permission("essentials.command.warp.tp.others")
+                .exec(Feature.WARP.guard("warp.tp.others", context -> {
+                    String name = context.getResult(1);
+                    List<EntityPlayer> players = context.getResult(2);
+                    if (players == null || players.isEmpty()) {
+                        context.addPlayerNotFoundError();
+                        return context.fail();
+                    }
 
-                    warps.forEach(warp -> form.button(warp.name())
-                            .onClick(button -> teleportPlayer(entityPlayer, player, warp)));
+                    LocationRecord warp = findWarp(name);
+                    if (warp == null) {
+                        context.addError(unknownWarpMessage(name));
+                        return context.fail();
+                    }
 
-                    form.onClose(() -> player.sendMessage(TextFormat.YELLOW + "Warp selection closed."));
-                    player.viewForm(form);
+                    // Resolve once for the whole group
+                    Location3dc location = warpManager.resolve(warp);
+                    if (location == null) {
+                        context.addError("Warp location is unavailable (missing world or dimension).");
+                        return context.fail();
+                    }
 
+                    CommandSender sender = context.getSender();
+                    teleportService.teleportBatch(players, location, result ->
+                            sender.sendMessage(TextFormat.GREEN + result.summary("warp " + warp.name())));
+                    context.addOutput(TextFormat.YELLOW + "Teleporting " + players.size() + " player(s) to warp " + warp.name() + "...");
                     return context.success();
-                }, SenderType.ACTUAL_PLAYER);
+                }));
+
+        root.key("search")
+                .permission("essentials.command.warp.search")
+                .str("prefix")
+                .exec(Feature.WARP.guard("warp.search", (context, entityPlayer) -> {
+                    Player player = entityPlayer.getController();
+                    String prefix = context.getResult(1);
+
+                    if (warpManager.getWarpsAfter(prefix, null, 1).isEmpty()) {
+                        context.addOutput(TextFormat.YELLOW + "No warps start with \"" + prefix + "\".");
+                        return context.success();
+                    }
+
+                    openPage(player, new WarpForm("Warp Search", "Warps starting with \"" + prefix + "\".", prefix,
+                            "Warp selection closed.", warp -> teleportPlayer(entityPlayer, player, warp)), null, 0);
+                    return context.success();
+                }), SenderType.ACTUAL_PLAYER);
+
+        root.key("nearest")
+                .permission("essentials.command.warp.nearest")
+                .exec(Feature.WARP.guard("warp.nearest", (context, entityPlayer) -> {
+                    var nearest = warpManager.getNearestWarp(entityPlayer.getLocation());
+                    if (nearest.isEmpty()) {
+                        context.addOutput(TextFormat.YELLOW + "There are no warps in this dimension.");
+                        return context.success();
+                    }
+
+                    String name = nearest.get().record().name();
+                    context.addOutput(TextFormat.GREEN + "The nearest warp is " + name + ", "
+                                      + Math.round(nearest.get().distance()) + " blocks away. Use /warp tp " + name + " to go there.");
+                    return context.success();
+                }), SenderType.ACTUAL_PLAYER);
 
         root.key("list")
                 .permission("essentials.command.warp.list")
-                .exec((context, entityPlayer) -> {
-                    List<LocationRecord> warps = warpManager.getSortedWarps();
-                    if (warps.isEmpty()) {
+                .intNum("page", 1)
+                .optional()
+                .exec(Feature.WARP.guard("warp.list", (context, entityPlayer) -> {
+                    int count = warpManager.getWarpCount();
+                    if (count == 0) {
                         context.addOutput(TextFormat.YELLOW + "No warps available.");
                         return context.success();
                     }
+
+                    int pages = (count + LIST_PAGE_SIZE - 1) / LIST_PAGE_SIZE;
+                    int page = context.getResult(1);
+                    if (page < 1 || page > pages) {
+                        context.addError("Page must be between 1 and %d!", pages);
+                        return context.fail();
+                    }
+
+                    List<LocationRecord> warps = warpManager.getWarps((page - 1) * LIST_PAGE_SIZE, LIST_PAGE_SIZE);
                     String names = String.join(", ", warps.stream().map(LocationRecord::name).toList());
-                    context.addOutput(TextFormat.GREEN + "Warps: " + names);
+                    context.addOutput(TextFormat.GREEN + "Warps (page " + page + "/" + pages + "): " + names);
                     return context.success();
-                }, SenderType.ACTUAL_PLAYER);
+                }), SenderType.ACTUAL_PLAYER);
 
         root.key("add")
                 .permission("essentials.command.warp.add")
-                .exec((context, entityPlayer) -> {
+                .exec(Feature.WARP.guard("warp.add", (context, entityPlayer) -> {
                     Player player = entityPlayer.getController();
 
                     if (entityPlayer.getLocation() == null) {
@@ -87,42 +191,147 @@ public class WarpCommand extends Command {
                     }
 
                     Location3d snapshot = new Location3d(entityPlayer.getLocation());
-                    showAddWarpForm(player, snapshot);
+                    showAddWarpForm(entityPlayer, player, snapshot);
                     return context.success();
-                }, SenderType.ACTUAL_PLAYER);
+                }), SenderType.ACTUAL_PLAYER);
 
         root.key("remove")
                 .permission("essentials.command.warp.remove")
-                .exec((context, entityPlayer) -> {
+                .exec(Feature.WARP.guard("warp.remove", (context, entityPlayer) -> {
                     Player player = entityPlayer.getController();
 
-                    List<LocationRecord> warps = warpManager.getSortedWarps();
-                    if (warps.isEmpty()) {
+                    if (warpManager.getWarpCount() == 0) {
                         context.addError("No warps available to remove!");
                         return context.fail();
                     }
 
-                    SimpleForm form = Forms.simple()
-                            .title("Remove Warp")
-                            .content("Select a warp to delete.");
-
-                    warps.forEach(warp -> form.button(warp.name()).onClick(button -> {
+                    openPage(player, new WarpForm("Remove Warp", "Select a warp to delete.", "",
+                            "Warp removal cancelled.", warp -> {
                         boolean removed = warpManager.removeWarp(warp.name());
                         if (removed) {
+                            auditLog.record(AuditAction.WARP_REMOVE, entityPlayer, warp.name(), warp);
                             player.sendMessage(TextFormat.YELLOW + "Removed warp " + warp.name() + ".");
                         } else {
                             player.sendMessage(TextFormat.RED + "Warp " + warp.name() + " no longer exists.");
                         }
-                    }));
+                    }), null, 0);
 
-                    form.onClose(() -> player.sendMessage(TextFormat.YELLOW + "Warp removal cancelled."));
-                    player.viewForm(form);
+                    return context.success();
+                }), SenderType.ACTUAL_PLAYER);
 
+        // /warp import [file] - add the warps of a JSON file in the import folder, keeping existing ones
+        root.key("import")
+                .permission("essentials.command.warp.import")
+                .str("file", JsonTransfer.WARP_FILE_NAME)
+                .optional()
+                .exec(Feature.WARP.guard("warp.import", context -> {
+                    String fileName = context.getResult(1);
+                    Path file = importFolder.resolve(fileName).normalize();
+                    if (!file.startsWith(importFolder) || !Files.isRegularFile(file)) {
+                        context.addError("File \"" + fileName + "\" does not exist in " + importFolder + "!");
+                        return context.fail();
+                    }
+                    CommandSender sender = context.getSender();
+                    EssentialsIO.onServerThread(EssentialsIO.supply(file.toString(), () -> importWarps(file))).whenComplete((result, error) -> {
+                        if (error != null) {
+                            EssentialsPlugin.getInstance().getPluginLogger().error("Failed to import warps from {}", file, error);
+                            sender.sendMessage(TextFormat.RED + "Import failed, see the console for details.");
+                        } else {
+                            auditLog.record(AuditAction.WARP_IMPORT, sender, fileName, null);
+                            sender.sendMessage(TextFormat.GREEN + "Imported " + result.imported() + " of " + result.read()
+                                               + " warps, the others already exist.");
+                        }
+                    });
+                    context.addOutput(TextFormat.YELLOW + "Importing warps from " + fileName + "...");
                     return context.success();
-                }, SenderType.ACTUAL_PLAYER);
+                }));
+    }
+
+    /**
+     * Add the warps of a file, keeping existing ones, and write them at once.
+     */
+    private WarpManager.ImportResult importWarps(Path file) {
+        WarpManager.ImportResult result;
+        try {
+            result = warpManager.importWarps(file, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        warpManager.flush();
+        return result;
     }
 
-    private void showAddWarpForm(Player player, Location3d snapshot) {
+    /**
+     * Look up a warp by its exact name, or by a prefix that matches only one warp.
+     *
+     * @return the warp, or null if there is no single match
+     */
+    private LocationRecord findWarp(String name) {
+        Optional<LocationRecord> warp = warpManager.getWarp(name);
+        if (warp.isPresent()) {
+            return warp.get();
+        }
+        List<LocationRecord> matches = warpManager.getWarpsAfter(name, null, 2);
+        return matches.size() == 1 ? matches.getFirst() : null;
+    }
+
+    private String unknownWarpMessage(String name) {
+        List<LocationRecord> matches = warpManager.getWarpsAfter(name, null, SUGGESTION_LIMIT + 1);
+        if (matches.isEmpty()) {
+            return "Warp \"" + name + "\" does not exist!";
+        }
+        String suggestions = String.join(", ", matches.stream().limit(SUGGESTION_LIMIT).map(LocationRecord::name).toList());
+        return "Warp \"" + name + "\" is ambiguous, did you mean: " + suggestions + (matches.size() > SUGGESTION_LIMIT ? ", ..." : "");
+    }
+
+    /**
+     * Show the page of warps that follows the given warp name.
+     *
+     * @param after last warp of the previous page, or null for the first page
+     * @param page  zero-based page number, only used for display
+     */
+    private void openPage(Player player, WarpForm form, String after, int page) {
+        // Fetch one extra warp to find out whether there is a next page
+        List<LocationRecord> warps = warpManager.getWarpsAfter(form.prefix(), after, FORM_PAGE_SIZE + 1);
+        boolean hasNext = warps.size() > FORM_PAGE_SIZE;
+        showPage(player, form, hasNext ? warps.subList(0, FORM_PAGE_SIZE) : warps, page, hasNext);
+    }
+
+    private void showPage(Player player, WarpForm form, List<LocationRecord> warps, int page, boolean hasNext) {
+        if (warps.isEmpty()) {
+            player.sendMessage(TextFormat.YELLOW + "No warps available.");
+            return;
+        }
+
+        SimpleForm simpleForm = Forms.simple()
+                .title(form.title() + " (" + (page + 1) + ")")
+                .content(form.content());
+
+        if (page > 0) {
+            String first = warps.getFirst().name();
+            simpleForm.button("< Previous page").onClick(button -> {
+                List<LocationRecord> previous = warpManager.getWarpsBefore(form.prefix(), first, FORM_PAGE_SIZE);
+                if (previous.size() < FORM_PAGE_SIZE) {
+                    // Warps have been removed in the meantime, start over
+                    openPage(player, form, null, 0);
+                } else {
+                    showPage(player, form, previous, page - 1, true);
+                }
+            });
+        }
+
+        warps.forEach(warp -> simpleForm.button(warp.name()).onClick(button -> form.action().accept(warp)));
+
+        if (hasNext) {
+            String last = warps.getLast().name();
+            simpleForm.button("Next page >").onClick(button -> openPage(player, form, last, page + 1));
+        }
+
+        simpleForm.onClose(() -> player.sendMessage(TextFormat.YELLOW + form.closeMessage()));
+        player.viewForm(simpleForm);
+    }
+
+    private void showAddWarpForm(EntityPlayer entityPlayer, Player player, Location3d snapshot) {
         CustomForm form = Forms.custom()
                 .title("Add Warp")
                 .input("Warp name", "Enter a unique name");
@@ -138,6 +347,7 @@ public class WarpCommand extends Command {
 
             boolean added = warpManager.addWarp(name, snapshot);
             if (added) {
+                auditLog.record(AuditAction.WARP_ADD, entityPlayer, name, LocationRecord.from(name, snapshot));
                 player.sendMessage(TextFormat.GREEN + "Warp " + name + " has been created.");
             } else if (warpManager.getWarp(name).isPresent()) {
                 player.sendMessage(TextFormat.RED + "Warp \"" + name + "\" already exists.");
@@ -150,18 +360,25 @@ public class WarpCommand extends Command {
     }
 
     private void teleportPlayer(EntityPlayer entityPlayer, Player player, LocationRecord warp) {
-        var location = warp.toLocation();
+        var location = warpManager.resolve(warp);
         if (location == null) {
             player.sendMessage(TextFormat.RED + "Warp location is unavailable (missing world or dimension).");
             return;
         }
 
-        boolean success = entityPlayer.teleport(location);
-        if (success) {
-            player.sendMessage(TextFormat.GREEN + "Teleported to warp " + warp.name() + "!");
-        } else {
-            player.sendMessage(TextFormat.RED + "Teleportation failed.");
-        }
+        teleportService.teleportLater(entityPlayer, location, "Teleported to warp " + warp.name() + "!");
     }
 
+    /**
+     * A paged warp selection form.
+     *
+     * @param title        form title
+     * @param content      form content
+     * @param prefix       only list warps starting with this prefix
+     * @param closeMessage message sent when the form is closed
+     * @param action       action run for the selected warp
+     */
+    private record WarpForm(String title, String content, String prefix, String closeMessage,
+                            Consumer<LocationRecord> action) {
+    }
 }
@@ -0,0 +1,145 @@
+package me.daoge.essentials.metrics;
+
+import org.allaymc.api.command.CommandResult;
+import org.allaymc.api.command.tree.CommandContext;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide registry of counters and timers.
+ * <p>
+ * Metrics are created on first use and named with dot-separated lower case
+ * paths such as {@code command.home.tp} or {@code save.warp}. Recording can be
+ * turned off, in which case timed code runs without taking any timestamps.
+ *
+ * @author daoge
+ */
+public final class Metrics {
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static volatile boolean enabled = true;
+
+    private Metrics() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public static Timer timer(String name) {
+        return TIMERS.computeIfAbsent(name, key -> new Timer());
+    }
+
+    /**
+     * Increment a counter if metrics are enabled.
+     */
+    public static void increment(String name) {
+        if (enabled) {
+            counter(name).increment();
+        }
+    }
+
+    /**
+     * Run an action and record its duration.
+     *
+     * @param name   timer name
+     * @param action action to run
+     */
+    public static void time(String name, Runnable action) {
+        if (!enabled) {
+            action.run();
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            action.run();
+        } finally {
+            timer(name).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Compute a value and record the duration.
+     *
+     * @param name   timer name
+     * @param action action to run
+     * @return the action's result
+     */
+    public static <T> T time(String name, Supplier<T> action) {
+        if (!enabled) {
+            return action.get();
+        }
+        long start = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            timer(name).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Wrap a command executor so that its duration is recorded in the
+     * {@code command.<name>} timer and failed executions are counted.
+     *
+     * @param name    command path, e.g. {@code home.tp}
+     * @param handler command executor
+     * @return the instrumented executor
+     */
+    public static <S> BiFunction<CommandContext, S, CommandResult> command(String name, BiFunction<CommandContext, S, CommandResult> handler) {
+        String timerName = "command." + name;
+        return (context, sender) -> countFailure(timerName, time(timerName, () -> handler.apply(context, sender)));
+    }
+
+    /**
+     * Wrap a command executor that does not need a typed sender.
+     *
+     * @see #command(String, BiFunction)
+     */
+    public static Function<CommandContext, CommandResult> command(String name, Function<CommandContext, CommandResult> handler) {
+        String timerName = "command." + name;
+        return context -> countFailure(timerName, time(timerName, () -> handler.apply(context)));
+    }
+
+    /**
+     * @return all counters sorted by name
+     */
+    public static Map<String, Counter> counters() {
+        return new TreeMap<>(COUNTERS);
+    }
+
+    /**
+     * @return all timers sorted by name
+     */
+    public static Map<String, Timer> timers() {
+        return new TreeMap<>(TIMERS);
+    }
+
+    /**
+     * Reset all metrics to zero, keeping them registered.
+     */
+    public static void reset() {
+        COUNTERS.values().forEach(Counter::reset);
+        TIMERS.values().forEach(Timer::reset);
+    }
+
+    private static CommandResult countFailure(String timerName, CommandResult result) {
+        if (enabled && result != null && !result.isSuccess()) {
+            counter(timerName + ".failed").increment();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,84 @@
+package me.daoge.essentials.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import me.daoge.essentials.AtomicFiles;
+import me.daoge.essentials.EssentialsIO;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Periodically writes all {@link Metrics} to a file in the Prometheus text
+ * exposition format, e.g. for the node_exporter textfile collector.
+ *
+ * @author daoge
+ */
+@Slf4j
+public class PrometheusExporter implements AutoCloseable {
+
+    private static final String PREFIX = "essentials_";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private final Path file;
+    private final EssentialsIO.Repeating writer;
+
+    /**
+     * @param file           file to write
+     * @param intervalMillis delay between writes in milliseconds
+     */
+    public PrometheusExporter(Path file, long intervalMillis) {
+        this.file = file;
+        this.writer = EssentialsIO.repeat("metrics-exporter", Math.max(1000, intervalMillis), this::write);
+    }
+
+    /**
+     * Render all metrics in the Prometheus text format.
+     */
+    public static String render() {
+        StringBuilder builder = new StringBuilder();
+        Metrics.counters().forEach((name, counter) -> {
+            String metric = PREFIX + sanitize(name) + "_total";
+            builder.append("# TYPE ").append(metric).append(" counter\n");
+            builder.append(metric).append(' ').append(counter.get()).append('\n');
+        });
+        Metrics.timers().forEach((name, timer) -> {
+            String metric = PREFIX + sanitize(name) + "_seconds";
+            Timer.Snapshot snapshot = timer.snapshot();
+            builder.append("# TYPE ").append(metric).append(" summary\n");
+            for (double quantile : QUANTILES) {
+                builder.append(metric).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(snapshot.percentile(quantile))).append('\n');
+            }
+            builder.append(metric).append("_sum ").append(seconds(snapshot.totalNanos())).append('\n');
+            builder.append(metric).append("_count ").append(snapshot.count()).append('\n');
+        });
+        return builder.toString();
+    }
+
+    /**
+     * Stop writing and write the final values.
+     */
+    @Override
+    public void close() {
+        writer.close();
+        write();
+    }
+
+    private void write() {
+        try {
+            AtomicFiles.writeString(file, render());
+        } catch (IOException e) {
+            log.error("Failed to write metrics to {}", file, e);
+        }
+    }
+
+    private static String sanitize(String name) {
+        return name.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9_]", "_");
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / NANOS_PER_SECOND);
+    }
+}
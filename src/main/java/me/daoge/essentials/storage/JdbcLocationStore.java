@@ -0,0 +1,94 @@
+package me.daoge.essentials.storage;
+
+import me.daoge.essentials.LocationRecord;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link LocationStore} of one namespace in a {@link JdbcStorageBackend}.
+ * <p>
+ * Changes are staged in memory and written by {@link #flush()} as one batched
+ * transaction; a failed flush keeps them staged for the next attempt. Loading
+ * reads the database and applies the staged changes on top, so that a reload
+ * caused by another server does not undo changes that are not written yet.
+ * Loads and flushes of a store run one at a time, so a load either sees a
+ * flush's changes in the database or still staged, never neither.
+ *
+ * @author daoge
+ */
+public class JdbcLocationStore implements LocationStore {
+
+    private final JdbcStorageBackend backend;
+    private final String namespace;
+    // Held while reading or writing the database; the store itself only guards the staged changes
+    private final Object ioLock = new Object();
+    // Staged changes by key, null removes the key
+    private Map<String, LocationRecord> staged = new LinkedHashMap<>();
+
+    JdbcLocationStore(JdbcStorageBackend backend, String namespace) {
+        this.backend = backend;
+        this.namespace = namespace;
+    }
+
+    @Override
+    public Map<String, LocationRecord> load() {
+        synchronized (ioLock) {
+            Map<String, LocationRecord> records = backend.read(namespace);
+            synchronized (this) {
+                overlay(records, staged);
+            }
+            return records;
+        }
+    }
+
+    @Override
+    public synchronized void put(String key, LocationRecord record) {
+        staged.put(key, record);
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        staged.put(key, null);
+    }
+
+    @Override
+    public void flush() {
+        synchronized (ioLock) {
+            Map<String, LocationRecord> changes;
+            synchronized (this) {
+                if (staged.isEmpty()) {
+                    return;
+                }
+                changes = staged;
+                staged = new LinkedHashMap<>();
+            }
+            try {
+                backend.write(namespace, changes);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    // Changes staged meanwhile are newer and win
+                    Map<String, LocationRecord> merged = new LinkedHashMap<>(changes);
+                    merged.putAll(staged);
+                    staged = merged;
+                }
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    private static void overlay(Map<String, LocationRecord> records, Map<String, LocationRecord> changes) {
+        changes.forEach((key, record) -> {
+            if (record != null) {
+                records.put(key, record);
+            } else {
+                records.remove(key);
+            }
+        });
+    }
+}
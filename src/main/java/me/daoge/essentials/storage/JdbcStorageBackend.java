@@ -0,0 +1,446 @@
+package me.daoge.essentials.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import me.daoge.essentials.EssentialsIO;
+import me.daoge.essentials.LocationRecord;
+import me.daoge.essentials.metrics.Metrics;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * {@link StorageBackend} keeping all namespaces in a SQL database, so that
+ * several servers behind a proxy share their homes, warps and hub.
+ * <p>
+ * Records live in one table keyed by namespace and record key. Every write
+ * transaction takes the next stamp from a single-row sequence and stores it as
+ * the namespace's latest change; as the sequence row stays locked until the
+ * transaction commits, stamps are gapless and become visible in order. Each
+ * server polls for changes with a stamp above the last one it saw and notifies
+ * the change listeners of namespaces written by other servers. A stamp that is
+ * missing from the result was overwritten by a later change of the same
+ * namespace, which may be one of our own; then all namespaces in the result
+ * are reported, so that no foreign change is ever hidden.
+ * <p>
+ * Stores only hold staged changes, which a flush writes as one batched
+ * transaction. Reads go to the database, callers keep the loaded data in
+ * memory. The JDBC driver is not bundled and must be on the server's classpath.
+ * Statements run on a small pool of connections without holding a lock, so a
+ * slow query does not stall the other stores. A connection is only validated
+ * after a statement failed; a broken one is replaced and the statement retried once.
+ *
+ * @author daoge
+ */
+@Slf4j
+public class JdbcStorageBackend implements StorageBackend {
+
+    private static final int SEQUENCE_ID = 1;
+    private static final int MAX_CONNECTIONS = 4;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final String locationsTable;
+    private final String changesTable;
+    private final String sequenceTable;
+    private final List<Consumer<Set<String>>> listeners = new CopyOnWriteArrayList<>();
+    // Stamps of our own writes that polling has not reached yet
+    private final Set<Long> ownStamps = new ConcurrentSkipListSet<>();
+    private final Semaphore permits = new Semaphore(MAX_CONNECTIONS);
+    private final Deque<Connection> idle = new ConcurrentLinkedDeque<>();
+    private final EssentialsIO.Repeating poller;
+    private volatile boolean closed;
+    // Only accessed by the poller, which never runs concurrently with itself
+    private long lastStamp;
+
+    /**
+     * Connect to the database and create the tables if needed.
+     *
+     * @param url                JDBC url
+     * @param user               database user, empty for none
+     * @param password           database password
+     * @param tablePrefix        prefix of the table names
+     * @param pollIntervalMillis delay between polls for changes of other servers
+     * @throws IllegalStateException if the database cannot be reached
+     */
+    public JdbcStorageBackend(String url, String user, String password, String tablePrefix, long pollIntervalMillis) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.locationsTable = tablePrefix + "locations";
+        this.changesTable = tablePrefix + "changes";
+        this.sequenceTable = tablePrefix + "sequence";
+        try {
+            lastStamp = withConnection("initialize the tables at " + url, connection -> {
+                createTables(connection);
+                return currentStamp(connection);
+            });
+        } catch (IllegalStateException e) {
+            close();
+            throw e;
+        }
+        this.poller = EssentialsIO.repeat("storage-poller", pollIntervalMillis, this::poll);
+    }
+
+    @Override
+    public LocationStore open(String namespace) {
+        return new JdbcLocationStore(this, namespace);
+    }
+
+    @Override
+    public boolean exists(String namespace) {
+        return withConnection("check " + namespace, connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT 1 FROM " + locationsTable + " WHERE namespace = ?")) {
+                statement.setMaxRows(1);
+                statement.setString(1, namespace);
+                try (ResultSet result = statement.executeQuery()) {
+                    return result.next();
+                }
+            }
+        });
+    }
+
+    @Override
+    public List<String> list(String group) {
+        String prefix = group + "/";
+        return withConnection("list " + group, connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT DISTINCT namespace FROM " + locationsTable + " WHERE namespace LIKE ?")) {
+                statement.setString(1, prefix + "%");
+                List<String> names = new ArrayList<>();
+                try (ResultSet result = statement.executeQuery()) {
+                    while (result.next()) {
+                        String namespace = result.getString(1);
+                        // LIKE treats _ in the prefix as a wildcard
+                        if (namespace.startsWith(prefix)) {
+                            names.add(namespace.substring(prefix.length()));
+                        }
+                    }
+                }
+                return names;
+            }
+        });
+    }
+
+    @Override
+    public void addChangeListener(Consumer<Set<String>> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop polling and close the connections.
+     */
+    @Override
+    public void close() {
+        if (poller != null) {
+            poller.close();
+        }
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Read all records of a namespace.
+     */
+    Map<String, LocationRecord> read(String namespace) {
+        return withConnection("read " + namespace, connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT record_key, name, world, dimension, x, y, z, pitch, yaw FROM " + locationsTable + " WHERE namespace = ?")) {
+                statement.setString(1, namespace);
+                Map<String, LocationRecord> records = new HashMap<>();
+                try (ResultSet result = statement.executeQuery()) {
+                    while (result.next()) {
+                        records.put(result.getString(1), new LocationRecord(
+                                result.getString(2), result.getString(3), result.getInt(4),
+                                result.getDouble(5), result.getDouble(6), result.getDouble(7),
+                                result.getDouble(8), result.getDouble(9)));
+                    }
+                }
+                return records;
+            }
+        });
+    }
+
+    /**
+     * Write the changes of a namespace in one transaction and stamp them.
+     *
+     * @param changes records by key, null values remove the key
+     */
+    void write(String namespace, Map<String, LocationRecord> changes) {
+        withConnection("write " + namespace, connection -> {
+            connection.setAutoCommit(false);
+            long stamp = -1;
+            try {
+                stamp = nextStamp(connection);
+                // Registered before the commit, so that a poll right after it does not report our own change
+                ownStamps.add(stamp);
+                try (PreparedStatement delete = connection.prepareStatement(
+                        "DELETE FROM " + locationsTable + " WHERE namespace = ? AND record_key = ?");
+                     PreparedStatement insert = connection.prepareStatement(
+                             "INSERT INTO " + locationsTable + " (namespace, record_key, name, world, dimension, x, y, z, pitch, yaw)"
+                             + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                    for (Map.Entry<String, LocationRecord> change : changes.entrySet()) {
+                        delete.setString(1, namespace);
+                        delete.setString(2, change.getKey());
+                        delete.addBatch();
+                        LocationRecord record = change.getValue();
+                        if (record != null) {
+                            insert.setString(1, namespace);
+                            insert.setString(2, change.getKey());
+                            insert.setString(3, record.name());
+                            insert.setString(4, record.worldName());
+                            insert.setInt(5, record.dimensionId());
+                            insert.setDouble(6, record.x());
+                            insert.setDouble(7, record.y());
+                            insert.setDouble(8, record.z());
+                            insert.setDouble(9, record.pitch());
+                            insert.setDouble(10, record.yaw());
+                            insert.addBatch();
+                        }
+                    }
+                    delete.executeBatch();
+                    insert.executeBatch();
+                }
+                stampNamespace(connection, namespace, stamp);
+                connection.commit();
+                return null;
+            } catch (SQLException e) {
+                // The rolled back stamp will be taken by the next writer, which may be another server
+                ownStamps.remove(stamp);
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackFailure) {
+                    e.addSuppressed(rollbackFailure);
+                }
+                throw e;
+            } finally {
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException e) {
+                    // The connection is broken, the next statement on it fails and replaces it
+                }
+            }
+        });
+    }
+
+    private void poll() {
+        Set<String> changed;
+        try {
+            changed = pollChanges();
+        } catch (Exception e) {
+            Metrics.increment("storage.poll.failed");
+            log.error("Failed to poll the database storage for changes", e);
+            return;
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+        Metrics.increment("storage.remote-changes");
+        for (Consumer<Set<String>> listener : listeners) {
+            try {
+                listener.accept(changed);
+            } catch (Exception e) {
+                log.error("Failed to apply changes from the database storage", e);
+            }
+        }
+    }
+
+    private Set<String> pollChanges() {
+        TreeMap<Long, String> stamps = withConnection("poll", connection -> {
+            TreeMap<Long, String> result = new TreeMap<>();
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT namespace, stamp FROM " + changesTable + " WHERE stamp > ?")) {
+                statement.setLong(1, lastStamp);
+                try (ResultSet rows = statement.executeQuery()) {
+                    while (rows.next()) {
+                        result.put(rows.getLong(2), rows.getString(1));
+                    }
+                }
+            }
+            return result;
+        });
+        if (stamps.isEmpty()) {
+            return Set.of();
+        }
+        long maxStamp = stamps.lastKey();
+        boolean overwritten = false;
+        for (long stamp = lastStamp + 1; stamp <= maxStamp; stamp++) {
+            if (!stamps.containsKey(stamp) && !ownStamps.contains(stamp)) {
+                overwritten = true;
+                break;
+            }
+        }
+        Set<String> changed = new HashSet<>();
+        boolean reportAll = overwritten;
+        stamps.forEach((stamp, namespace) -> {
+            if (reportAll || !ownStamps.contains(stamp)) {
+                changed.add(namespace);
+            }
+        });
+        ownStamps.removeIf(stamp -> stamp <= maxStamp);
+        lastStamp = maxStamp;
+        return changed;
+    }
+
+    private void createTables(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + locationsTable + " ("
+                                    + "namespace VARCHAR(64) NOT NULL, "
+                                    + "record_key VARCHAR(255) NOT NULL, "
+                                    + "name VARCHAR(255) NOT NULL, "
+                                    + "world VARCHAR(255) NOT NULL, "
+                                    + "dimension INT NOT NULL, "
+                                    + "x DOUBLE PRECISION NOT NULL, "
+                                    + "y DOUBLE PRECISION NOT NULL, "
+                                    + "z DOUBLE PRECISION NOT NULL, "
+                                    + "pitch DOUBLE PRECISION NOT NULL, "
+                                    + "yaw DOUBLE PRECISION NOT NULL, "
+                                    + "PRIMARY KEY (namespace, record_key))");
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + changesTable + " ("
+                                    + "namespace VARCHAR(64) NOT NULL PRIMARY KEY, "
+                                    + "stamp BIGINT NOT NULL)");
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + sequenceTable + " ("
+                                    + "id INT NOT NULL PRIMARY KEY, "
+                                    + "stamp BIGINT NOT NULL)");
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE INDEX " + changesTable + "_stamp ON " + changesTable + " (stamp)");
+        } catch (SQLException ignored) {
+            // Not every database supports IF NOT EXISTS for indexes, the index most likely exists already
+        }
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO " + sequenceTable + " (id, stamp) VALUES (?, 0)")) {
+            statement.setInt(1, SEQUENCE_ID);
+            statement.executeUpdate();
+        } catch (SQLException ignored) {
+            // Created by an earlier start or by another server
+        }
+    }
+
+    private long currentStamp(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT stamp FROM " + sequenceTable + " WHERE id = ?")) {
+            statement.setInt(1, SEQUENCE_ID);
+            try (ResultSet result = statement.executeQuery()) {
+                if (!result.next()) {
+                    throw new SQLException("Missing row in " + sequenceTable);
+                }
+                return result.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Take the next stamp. The update locks the sequence row until the transaction ends.
+     */
+    private long nextStamp(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "UPDATE " + sequenceTable + " SET stamp = stamp + 1 WHERE id = ?")) {
+            statement.setInt(1, SEQUENCE_ID);
+            statement.executeUpdate();
+        }
+        return currentStamp(connection);
+    }
+
+    private void stampNamespace(Connection connection, String namespace, long stamp) throws SQLException {
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE " + changesTable + " SET stamp = ? WHERE namespace = ?")) {
+            update.setLong(1, stamp);
+            update.setString(2, namespace);
+            if (update.executeUpdate() > 0) {
+                return;
+            }
+        }
+        // Holding the sequence row lock, no other server can insert the same namespace meanwhile
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO " + changesTable + " (namespace, stamp) VALUES (?, ?)")) {
+            insert.setString(1, namespace);
+            insert.setLong(2, stamp);
+            insert.executeUpdate();
+        }
+    }
+
+    /**
+     * Run statements on a pooled connection. If they fail because the
+     * connection broke, they are retried once on a new connection.
+     *
+     * @param action description of the work for the error message
+     * @param work   statements to run
+     * @return the result of the work
+     * @throws IllegalStateException if the work fails
+     */
+    private <T> T withConnection(String action, SqlWork<T> work) {
+        permits.acquireUninterruptibly();
+        Connection connection = idle.poll();
+        try {
+            if (connection == null) {
+                connection = openConnection();
+            }
+            try {
+                return work.apply(connection);
+            } catch (SQLException e) {
+                if (connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                    throw e;
+                }
+                closeQuietly(connection);
+                connection = null;
+                connection = openConnection();
+                return work.apply(connection);
+            }
+        } catch (SQLException e) {
+            if (connection != null && !isValid(connection)) {
+                closeQuietly(connection);
+                connection = null;
+            }
+            throw failure(action, e);
+        } finally {
+            if (connection != null) {
+                if (closed) {
+                    closeQuietly(connection);
+                } else {
+                    idle.push(connection);
+                }
+            }
+            permits.release();
+        }
+    }
+
+    private Connection openConnection() throws SQLException {
+        return user.isEmpty() ? DriverManager.getConnection(url) : DriverManager.getConnection(url, user, password);
+    }
+
+    private static boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.warn("Failed to close a database connection", e);
+        }
+    }
+
+    private static IllegalStateException failure(String action, SQLException e) {
+        return new IllegalStateException("Failed to " + action + " in the database storage", e);
+    }
+
+    @FunctionalInterface
+    private interface SqlWork<T> {
+        T apply(Connection connection) throws SQLException;
+    }
+}
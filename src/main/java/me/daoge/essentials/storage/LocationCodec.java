@@ -0,0 +1,314 @@
+package me.daoge.essentials.storage;
+
+import me.daoge.essentials.LocationRecord;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Compact, versioned binary format for {@link LocationRecord}s.
+ * <p>
+ * Every file starts with a 4-byte magic and a version byte. Snapshots intern
+ * world names into a string table so that each record only carries a varint
+ * index; dimension ids are zigzag varints and coordinates are doubles. Pitch and
+ * yaw may optionally be stored as floats.
+ * <p>
+ * Log files hold a sequence of frames ({@code length, crc32, payload}) so that a
+ * frame torn by a crash is detected and everything before it is kept.
+ *
+ * @author daoge
+ */
+public final class LocationCodec {
+
+    /**
+     * "ESLS" - Essentials location store.
+     */
+    public static final int MAGIC = 0x45534C53;
+    public static final int VERSION = 1;
+
+    private static final int FLAG_FLOAT_ANGLES = 1;
+    private static final int OP_REMOVE = 1 << 1;
+    // Frames larger than this can only come from corruption
+    private static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    private LocationCodec() {
+    }
+
+    /**
+     * A decoded log entry.
+     *
+     * @param key    record key
+     * @param record record value, null for removals
+     */
+    public record LogEntry(String key, LocationRecord record) {
+        public boolean isRemoval() {
+            return record == null;
+        }
+    }
+
+    /**
+     * Result of replaying a log.
+     *
+     * @param entries    number of valid entries read
+     * @param validBytes length of the valid prefix of the log
+     * @param torn       whether trailing bytes had to be discarded
+     */
+    public record ReplayResult(int entries, long validBytes, boolean torn) {
+    }
+
+    /**
+     * Check whether the data starts with the binary magic.
+     */
+    public static boolean hasMagic(byte[] head) {
+        return head.length >= 4 && ((head[0] & 0xFF) << 24 | (head[1] & 0xFF) << 16 | (head[2] & 0xFF) << 8 | (head[3] & 0xFF)) == MAGIC;
+    }
+
+    /**
+     * @return the header bytes every binary file starts with
+     */
+    public static byte[] header() {
+        return new byte[]{(byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 8), (byte) MAGIC, VERSION};
+    }
+
+    /**
+     * Encode a full snapshot.
+     *
+     * @param records     key to record map
+     * @param floatAngles whether pitch and yaw are stored as floats
+     * @return encoded bytes
+     */
+    public static byte[] encodeSnapshot(Map<String, LocationRecord> records, boolean floatAngles) {
+        Map<String, Integer> worlds = new LinkedHashMap<>();
+        records.values().forEach(record -> worlds.putIfAbsent(record.worldName(), worlds.size()));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + records.size() * 48);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.write(header());
+            out.writeByte(floatAngles ? FLAG_FLOAT_ANGLES : 0);
+            writeVarInt(out, worlds.size());
+            for (String world : worlds.keySet()) {
+                writeString(out, world);
+            }
+            writeVarInt(out, records.size());
+            for (Map.Entry<String, LocationRecord> entry : records.entrySet()) {
+                LocationRecord record = entry.getValue();
+                writeString(out, entry.getKey());
+                writeString(out, record.name());
+                writeVarInt(out, worlds.get(record.worldName()));
+                writeBody(out, record, floatAngles);
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream never throws
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a snapshot produced by {@link #encodeSnapshot}.
+     *
+     * @param in       snapshot stream, positioned at the magic
+     * @param consumer receives each key and record
+     * @throws IOException if the data is malformed or of an unknown version
+     */
+    public static void decodeSnapshot(InputStream in, BiConsumer<String, LocationRecord> consumer) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        readHeader(data);
+        boolean floatAngles = (data.readUnsignedByte() & FLAG_FLOAT_ANGLES) != 0;
+        int worldCount = readVarInt(data);
+        String[] worlds = new String[worldCount];
+        for (int i = 0; i < worldCount; i++) {
+            worlds[i] = readString(data).intern();
+        }
+        int recordCount = readVarInt(data);
+        for (int i = 0; i < recordCount; i++) {
+            String key = readString(data);
+            String name = readString(data);
+            int worldIndex = readVarInt(data);
+            if (worldIndex < 0 || worldIndex >= worldCount) {
+                throw new IOException("Invalid world index " + worldIndex);
+            }
+            consumer.accept(key, readBody(data, name, worlds[worldIndex], floatAngles));
+        }
+    }
+
+    /**
+     * Encode a single framed log entry.
+     *
+     * @param key         record key
+     * @param record      record value, null for a removal
+     * @param floatAngles whether pitch and yaw are stored as floats
+     * @return frame bytes
+     */
+    public static byte[] encodeLogEntry(String key, LocationRecord record, boolean floatAngles) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(payload);
+        try {
+            if (record == null) {
+                out.writeByte(OP_REMOVE);
+                writeString(out, key);
+            } else {
+                out.writeByte(floatAngles ? FLAG_FLOAT_ANGLES : 0);
+                writeString(out, key);
+                writeString(out, record.name());
+                writeString(out, record.worldName());
+                writeBody(out, record, floatAngles);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] body = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(body.length + 8);
+        DataOutputStream frameOut = new DataOutputStream(frame);
+        try {
+            frameOut.writeInt(body.length);
+            frameOut.writeInt((int) crc.getValue());
+            frameOut.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return frame.toByteArray();
+    }
+
+    /**
+     * Replay a log produced by {@link #header()} followed by {@link #encodeLogEntry} frames.
+     * Replay stops at the first incomplete or corrupted frame.
+     *
+     * @param in       log stream, positioned at the magic
+     * @param consumer receives each entry
+     * @return replay statistics
+     * @throws IOException if the header is invalid
+     */
+    public static ReplayResult replayLog(InputStream in, Consumer<LogEntry> consumer) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        readHeader(data);
+        long validBytes = header().length;
+        int entries = 0;
+        while (true) {
+            int length;
+            try {
+                length = data.readInt();
+            } catch (EOFException e) {
+                return new ReplayResult(entries, validBytes, false);
+            }
+            try {
+                if (length < 0 || length > MAX_FRAME_LENGTH) {
+                    return new ReplayResult(entries, validBytes, true);
+                }
+                int checksum = data.readInt();
+                byte[] body = data.readNBytes(length);
+                if (body.length != length) {
+                    return new ReplayResult(entries, validBytes, true);
+                }
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum) {
+                    return new ReplayResult(entries, validBytes, true);
+                }
+                consumer.accept(decodeLogBody(body));
+                entries++;
+                validBytes += 8L + length;
+            } catch (EOFException e) {
+                return new ReplayResult(entries, validBytes, true);
+            }
+        }
+    }
+
+    private static LogEntry decodeLogBody(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        int flags = in.readUnsignedByte();
+        String key = readString(in);
+        if ((flags & OP_REMOVE) != 0) {
+            return new LogEntry(key, null);
+        }
+        String name = readString(in);
+        String world = readString(in).intern();
+        return new LogEntry(key, readBody(in, name, world, (flags & FLAG_FLOAT_ANGLES) != 0));
+    }
+
+    private static void readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a location store file");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported location store version " + version);
+        }
+    }
+
+    private static void writeBody(DataOutput out, LocationRecord record, boolean floatAngles) throws IOException {
+        writeVarInt(out, zigzag(record.dimensionId()));
+        out.writeDouble(record.x());
+        out.writeDouble(record.y());
+        out.writeDouble(record.z());
+        if (floatAngles) {
+            out.writeFloat((float) record.pitch());
+            out.writeFloat((float) record.yaw());
+        } else {
+            out.writeDouble(record.pitch());
+            out.writeDouble(record.yaw());
+        }
+    }
+
+    private static LocationRecord readBody(DataInput in, String name, String world, boolean floatAngles) throws IOException {
+        int dimensionId = unzigzag(readVarInt(in));
+        double x = in.readDouble();
+        double y = in.readDouble();
+        double z = in.readDouble();
+        double pitch = floatAngles ? in.readFloat() : in.readDouble();
+        double yaw = floatAngles ? in.readFloat() : in.readDouble();
+        return new LocationRecord(name, world, dimensionId, x, y, z, pitch, yaw);
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("VarInt too long");
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
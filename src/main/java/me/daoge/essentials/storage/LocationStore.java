@@ -0,0 +1,50 @@
+package me.daoge.essentials.storage;
+
+import me.daoge.essentials.LocationRecord;
+
+import java.util.Map;
+
+/**
+ * Durable key-value store for {@link LocationRecord}s.
+ * <p>
+ * {@link #put} and {@link #remove} only stage a change; staged changes become
+ * durable on {@link #flush()}, which is expected to be called from a background
+ * writer rather than from the server thread.
+ *
+ * @author daoge
+ */
+public interface LocationStore extends AutoCloseable {
+
+    /**
+     * Read the current contents of the store.
+     *
+     * @return mutable map of key to record
+     */
+    Map<String, LocationRecord> load();
+
+    /**
+     * Stage an insert or update.
+     *
+     * @param key    record key
+     * @param record record value
+     */
+    void put(String key, LocationRecord record);
+
+    /**
+     * Stage a removal.
+     *
+     * @param key record key
+     */
+    void remove(String key);
+
+    /**
+     * Write all staged changes to durable storage.
+     */
+    void flush();
+
+    /**
+     * Flush staged changes and release resources.
+     */
+    @Override
+    void close();
+}
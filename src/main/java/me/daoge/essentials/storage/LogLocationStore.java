@@ -0,0 +1,264 @@
+package me.daoge.essentials.storage;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import lombok.extern.slf4j.Slf4j;
+import me.daoge.essentials.AtomicFiles;
+import me.daoge.essentials.LocationRecord;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only {@link LocationStore}.
+ * <p>
+ * Every change is appended to {@code <name>.log} as a single {@link LocationCodec}
+ * frame, so a mutation costs I/O proportional to the record rather than to the
+ * whole data set. Changes staged between two flushes are coalesced by key, so
+ * a record changed many times in a row is appended once. A flush is all or
+ * nothing: when an append fails, the log is cut back to where it started. On open,
+ * {@code <name>.snapshot} is read and the log replayed on top of it; a frame
+ * torn by a crash is cut off. Once the log holds more than
+ * the compaction threshold of entries, the current state is written to a fresh
+ * snapshot and the log is truncated.
+ * <p>
+ * Files written as JSON lines by older versions are still readable and are
+ * rewritten in the binary format when first opened.
+ *
+ * @author daoge
+ */
+@Slf4j
+public class LogLocationStore implements LocationStore {
+
+    private static final String SNAPSHOT_EXTENSION = ".snapshot";
+    private static final String LOG_EXTENSION = ".log";
+    private static final String LEGACY_OP_REMOVE = "remove";
+
+    private final Gson gson = new Gson();
+    private final Path snapshotFile;
+    private final Path logFile;
+    private final int compactThreshold;
+    private final boolean floatAngles;
+    // Mirror of the durable state, used to write snapshots
+    private final Map<String, LocationRecord> state = new HashMap<>();
+    // Changes staged since the last flush, only the latest one per key
+    private final Map<String, LocationCodec.LogEntry> pending = new LinkedHashMap<>();
+    private boolean loaded;
+    private int logEntries;
+
+    /**
+     * @param folder           folder holding the store files
+     * @param name             base file name of the store
+     * @param compactThreshold number of log entries that triggers a compaction
+     * @param floatAngles      whether pitch and yaw are stored as floats
+     */
+    public LogLocationStore(Path folder, String name, int compactThreshold, boolean floatAngles) {
+        this.snapshotFile = folder.resolve(name + SNAPSHOT_EXTENSION);
+        this.logFile = folder.resolve(name + LOG_EXTENSION);
+        this.compactThreshold = compactThreshold;
+        this.floatAngles = floatAngles;
+    }
+
+    /**
+     * @return true if either the snapshot or the log exists
+     */
+    public static boolean exists(Path folder, String name) {
+        return Files.exists(folder.resolve(name + SNAPSHOT_EXTENSION)) || Files.exists(folder.resolve(name + LOG_EXTENSION));
+    }
+
+    @Override
+    public synchronized Map<String, LocationRecord> load() {
+        state.clear();
+        boolean legacy = readSnapshot();
+        legacy |= replayLog();
+        loaded = true;
+        if (legacy) {
+            compact();
+        }
+        return new HashMap<>(state);
+    }
+
+    @Override
+    public synchronized void put(String key, LocationRecord record) {
+        pending.put(key, new LocationCodec.LogEntry(key, record));
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        pending.put(key, new LocationCodec.LogEntry(key, null));
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (!loaded) {
+            // The state mirror must be complete before a compaction can snapshot it
+            load();
+        }
+        try {
+            Files.createDirectories(logFile.getParent());
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                long start = channel.size();
+                try {
+                    if (start == 0) {
+                        write(channel, LocationCodec.header());
+                    }
+                    for (LocationCodec.LogEntry entry : pending.values()) {
+                        write(channel, LocationCodec.encodeLogEntry(entry.key(), entry.record(), floatAngles));
+                    }
+                    channel.force(false);
+                } catch (IOException e) {
+                    // Drop the partly written frames, so that the next flush does not append after a torn one
+                    try {
+                        channel.truncate(start);
+                    } catch (IOException suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                    throw e;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to " + logFile, e);
+        }
+        pending.values().forEach(this::apply);
+        logEntries += pending.size();
+        pending.clear();
+
+        if (logEntries > compactThreshold) {
+            compact();
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    /**
+     * Rewrite the snapshot from the current state and truncate the log.
+     * <p>
+     * Entries are idempotent, so a crash between the two steps only means the old
+     * log is replayed once more on top of the new snapshot.
+     */
+    private void compact() {
+        try {
+            AtomicFiles.write(snapshotFile, LocationCodec.encodeSnapshot(state, floatAngles));
+            Files.deleteIfExists(logFile);
+            logEntries = 0;
+        } catch (IOException e) {
+            log.error("Failed to compact {}", logFile, e);
+        }
+    }
+
+    /**
+     * @return true if the snapshot was in the legacy JSON format
+     */
+    private boolean readSnapshot() {
+        if (!Files.exists(snapshotFile)) {
+            return false;
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(snapshotFile))) {
+            if (!isBinary(in)) {
+                replayLegacy(snapshotFile);
+                return true;
+            }
+            LocationCodec.decodeSnapshot(in, state::put);
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + snapshotFile, e);
+        }
+    }
+
+    /**
+     * @return true if the log was in the legacy JSON format
+     */
+    private boolean replayLog() {
+        logEntries = 0;
+        if (!Files.exists(logFile)) {
+            return false;
+        }
+        try {
+            LocationCodec.ReplayResult result;
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(logFile))) {
+                if (!isBinary(in)) {
+                    logEntries = replayLegacy(logFile);
+                    return true;
+                }
+                result = LocationCodec.replayLog(in, this::apply);
+            }
+            logEntries = result.entries();
+            if (result.validBytes() < Files.size(logFile)) {
+                // Cut off the torn tail so that new frames are appended after valid data
+                log.warn("Discarding corrupted tail of {}", logFile);
+                try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                    channel.truncate(result.validBytes());
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + logFile, e);
+        }
+    }
+
+    private int replayLegacy(Path file) throws IOException {
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    LegacyEntry entry = gson.fromJson(line, LegacyEntry.class);
+                    if (entry != null && entry.key() != null) {
+                        apply(new LocationCodec.LogEntry(entry.key(), LEGACY_OP_REMOVE.equals(entry.op()) ? null : entry.record()));
+                        count++;
+                    }
+                } catch (JsonParseException e) {
+                    // Torn write from a crash, everything before it is still valid
+                    log.warn("Skipping corrupted entry in {}", file);
+                }
+            }
+        }
+        return count;
+    }
+
+    private void apply(LocationCodec.LogEntry entry) {
+        if (entry.isRemoval()) {
+            state.remove(entry.key());
+        } else {
+            state.put(entry.key(), entry.record());
+        }
+    }
+
+    private static boolean isBinary(InputStream in) throws IOException {
+        in.mark(4);
+        byte[] head = in.readNBytes(4);
+        in.reset();
+        return LocationCodec.hasMagic(head);
+    }
+
+    private static void write(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private record LegacyEntry(String op, String key, LocationRecord record) {
+    }
+}
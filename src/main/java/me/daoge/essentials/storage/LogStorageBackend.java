@@ -0,0 +1,64 @@
+package me.daoge.essentials.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * {@link StorageBackend} that keeps each namespace in a {@link LogLocationStore}
+ * under the plugin's data folder.
+ *
+ * @author daoge
+ */
+public class LogStorageBackend implements StorageBackend {
+
+    private static final String SNAPSHOT_EXTENSION = ".snapshot";
+    private static final String LOG_EXTENSION = ".log";
+
+    private final Path dataFolder;
+    private final int compactThreshold;
+    private final boolean floatAngles;
+
+    /**
+     * @param dataFolder       plugin data folder
+     * @param compactThreshold number of log entries that triggers a compaction
+     * @param floatAngles      whether pitch and yaw are stored as floats
+     */
+    public LogStorageBackend(Path dataFolder, int compactThreshold, boolean floatAngles) {
+        this.dataFolder = dataFolder;
+        this.compactThreshold = compactThreshold;
+        this.floatAngles = floatAngles;
+    }
+
+    @Override
+    public LocationStore open(String namespace) {
+        Path file = dataFolder.resolve(namespace);
+        return new LogLocationStore(file.getParent(), file.getFileName().toString(), compactThreshold, floatAngles);
+    }
+
+    @Override
+    public boolean exists(String namespace) {
+        Path file = dataFolder.resolve(namespace);
+        return LogLocationStore.exists(file.getParent(), file.getFileName().toString());
+    }
+
+    @Override
+    public List<String> list(String group) {
+        Path folder = dataFolder.resolve(group);
+        if (!Files.isDirectory(folder)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(SNAPSHOT_EXTENSION) || name.endsWith(LOG_EXTENSION))
+                    .map(name -> name.substring(0, name.lastIndexOf('.')))
+                    .distinct()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list " + folder, e);
+        }
+    }
+}
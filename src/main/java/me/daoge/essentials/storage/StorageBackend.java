@@ -0,0 +1,58 @@
+package me.daoge.essentials.storage;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Factory for {@link LocationStore}s, one per namespace (e.g. {@code warp},
+ * {@code hub} or {@code homes/<uuid>}).
+ * <p>
+ * A backend may be shared by several servers. Callers keep what they loaded in
+ * memory and register a change listener to learn when another server changed a
+ * namespace, so that they can reload it.
+ *
+ * @author daoge
+ */
+public interface StorageBackend extends AutoCloseable {
+
+    /**
+     * Open the store for the given namespace.
+     *
+     * @param namespace store namespace, may contain {@code /} to group stores
+     * @return the store
+     */
+    LocationStore open(String namespace);
+
+    /**
+     * Check whether the namespace holds any data without opening it.
+     *
+     * @param namespace store namespace
+     * @return true if data exists
+     */
+    boolean exists(String namespace);
+
+    /**
+     * List the namespaces stored under a group.
+     *
+     * @param group group name, e.g. {@code homes}
+     * @return the names within the group, without the group prefix
+     */
+    List<String> list(String group);
+
+    /**
+     * Register a listener for changes made by other servers sharing this backend.
+     * Backends that are not shared never call it.
+     *
+     * @param listener receives the namespaces changed since the previous call, on a background thread
+     */
+    default void addChangeListener(Consumer<Set<String>> listener) {
+    }
+
+    /**
+     * Release the backend's resources. Stores must be closed first.
+     */
+    @Override
+    default void close() {
+    }
+}